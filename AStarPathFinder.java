@@ -1,7 +1,7 @@
 package jp.co.worksap.global;
 
 import java.util.ArrayList;
-import java.util.PriorityQueue;
+import java.util.List;
 
 /**
  * Created by Emperor on 30/10/14.
@@ -86,200 +86,377 @@ class Node implements Comparable<Node> {
 
 
 /**
- * AStarNode class is used for calculation. Compared with Node, the AStarNode contains
- * extra members like g_score and h_estimate which are used for generation shortest paths.
- * It is comparable since later on it will be used in the PriorityQueue container.
+ * The AStarPathFinder is used to get the shortest paths between any two points on the graph.
+ * The map is kept as a GridMap, so cells are plain indices and walking to a neighbor is index
+ * arithmetic. All the per cell state of a search lives in a SearchWorkspace which is allocated once
+ * with the finder and reused by every query, so a query only touches the cells it actually explores.
  */
-class AStarNode implements Comparable<AStarNode> {
-    Node node;
-    int g_score;
-    int h_estimate;
-    AStarNode parent;
-
-    // Block initialization
-    {
-        node = null;
-        g_score = 0;
-        h_estimate = 0;
-        parent = null;
-    }
+
+public class AStarPathFinder implements PathFinder, DistanceMatrixProvider {
+    // The graph representing the grid map.
+    private GridMap grid;
+    // Index offsets of the up, down, left and right neighbors.
+    private int[] neighbors;
+
+    // Reusable state of the searches, indexed by cell.
+    private SearchWorkspace workspace;
+    // State of the backward frontier of bidirectional searches, allocated on first use.
+    private SearchWorkspace reverseWorkspace;
+    // Whether getShortestPath runs a bidirectional breadth first search instead of A*.
+    private boolean bidirectional;
+    // The connected components of the map if known, used to skip pairs which cannot be connected.
+    private GridComponents components;
+    // The open set of the A* search.
+    private OpenList openSet;
+    // The estimate of the cost to the target.
+    private Heuristic heuristic;
+    // The number of cells expanded by the last query.
+    private int expanded;
+    // The number of dead end cells pruned while loading the map.
+    private int prunedCount;
+    // The multi-threaded flood used instead of the single threaded one on maps of at least parallelThreshold cells.
+    private ParallelBfs parallelBfs;
+    private int parallelThreshold;
 
     /**
-     * Construct from a Node
+     * Constructor from raw input.
      *
-     * @param node
+     * @param g      the String array containing the grid map.
+     * @param width  the width of the map.
+     * @param height the height of the map.
      */
-    public AStarNode(Node node) {
-        this.node = new Node(node);
+    public AStarPathFinder(String[] g, int width, int height) {
+        this(GridMap.fromRows(g, width, height));
     }
 
     /**
-     * Construct with the current Node and the target Node.
-     * With the target Node, the heuristic value could be calculated at construction.
+     * Constructor from raw input, which may prune the dead ends of the map while loading it.
+     * Pruning keeps the distances between the checkpoints, the start and the goal, see
+     * GridMap.pruneDeadEnds.
      *
-     * @param cur
-     * @param to
+     * @param g             the String array containing the grid map.
+     * @param width         the width of the map.
+     * @param height        the height of the map.
+     * @param pruneDeadEnds true to wall up the dead end pockets of the map.
      */
-    public AStarNode(Node cur, Node to) {
-        this(cur);
-        int d1 = Math.abs(this.node.point.row - to.point.row);
-        int d2 = Math.abs(this.node.point.col - to.point.col);
-        int d = (int) Math.sqrt(d1 * d1 + d2 * d2 + 0.0);
-        h_estimate = d;
+    public AStarPathFinder(String[] g, int width, int height, boolean pruneDeadEnds) {
+        this(GridMap.fromRows(g, width, height));
+        if (pruneDeadEnds) {
+            prunedCount = grid.pruneDeadEnds();
+        }
     }
 
     /**
-     * The node with small total score is preferred.
-     * If the total score is equal, then small heuristic value is preferred.
+     * Constructor from an already built map.
      *
-     * @param o
-     * @return
+     * @param grid the grid map.
      */
-    @Override
-    public int compareTo(AStarNode o) {
-        if (this.getF_score() < o.getF_score())
-            return -1;
-        else if (this.getF_score() > o.getF_score())
-            return 1;
-        else {
-            if (h_estimate < o.h_estimate) return -1;
-            if (h_estimate > o.h_estimate) return 1;
-            else return 0;
-        }
+    public AStarPathFinder(GridMap grid) {
+        this.grid = grid;
+        neighbors = grid.neighborOffsets();
+        workspace = new SearchWorkspace(grid.size());
+        openSet = new BinaryHeapOpenList();
+        heuristic = new EuclideanHeuristic(grid);
+    }
+
+    public GridMap getGrid() {
+        return grid;
     }
 
     /**
-     * @return the total score of the node.
+     * Replace the open set of the A* search, for example with a BucketOpenList.
+     *
+     * @param openList the open set to be used by the following queries.
      */
-    public int getF_score() {
-        return g_score + h_estimate;
+    public void setOpenList(OpenList openList) {
+        this.openSet = openList;
     }
 
-}
+    /**
+     * Replace the heuristic of the A* search, for example with a LandmarkHeuristic.
+     *
+     * @param heuristic the heuristic to be used by the following queries.
+     */
+    public void setHeuristic(Heuristic heuristic) {
+        this.heuristic = heuristic;
+    }
 
+    /**
+     * Let the floods of getDistances run on several threads with a ParallelBfs, if the map has at
+     * least the given number of cells. On smaller maps the layers are too small to be worth it.
+     *
+     * @param threads   the number of threads.
+     * @param threshold the number of cells, including the border, from which the parallel floods are used.
+     */
+    public void setParallelism(int threads, int threshold) {
+        parallelBfs = threads > 1 ? new ParallelBfs(grid, threads) : null;
+        parallelThreshold = threshold;
+    }
 
-/**
- * The AStarPathFinder is used to get the shortest paths between any two points on the graph.
- */
+    /**
+     * Switch getShortestPath between A* and the bidirectional search of getShortestPathBidirectional.
+     *
+     * @param bidirectional true for the bidirectional search.
+     */
+    public void setBidirectional(boolean bidirectional) {
+        this.bidirectional = bidirectional;
+    }
 
-public class AStarPathFinder {
-    // The graph representing the grid map.
-    private Node[][] graph;
-    // The corresponding AStarNode array for calculation.
-    private AStarNode[][] calc_graph;
+    /**
+     * Let the following queries answer pairs in different components immediately instead of
+     * searching the whole component of the start.
+     *
+     * @param components the connected components of the map.
+     */
+    public void setComponents(GridComponents components) {
+        this.components = components;
+    }
 
-    // Auxiliary arrays indicating whether the node has been visited or closed.
-    private boolean[][] visited;
-    private boolean[][] closed;
+    /**
+     * @return the number of dead end cells pruned while loading the map.
+     */
+    public int getPrunedCount() {
+        return prunedCount;
+    }
 
-    private int height, width;
+    /**
+     * @return the number of cells expanded by the last query.
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
 
     /**
-     * Constructor from raw input.
+     * A wrapper function for calling from outside.
      *
-     * @param g      the String array containing the grid map.
+     * @param start  the Node of the start on the graph.
+     * @param target the Node of the goal on the graph.
      * @param width  the width of the map.
      * @param height the height of the map.
+     * @return the shortest path.
      */
-    public AStarPathFinder(String[] g, int width, int height) {
-        graph = new Node[height][width];
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                // Construct a Node for every character in the raw grid map.
-                graph[i][j] = new Node(new Point(i, j), g[i].charAt(j));
+    public int getShortestPath(Node start, Node target, int width, int height) {
+        return getShortestPath(start.point, target.point, width, height);
+    }
+
+    @Override
+    public int getShortestPath(Point start, Point goal, int width, int height) {
+        if (components != null && !components.isConnected(start, goal)) {
+            expanded = 0;
+            return 0;
+        }
+        if (bidirectional) {
+            return getShortestPathBidirectional(start, goal, width, height);
+        }
+        int from = grid.index(start);
+        int to = grid.index(goal);
+        workspace.reset();
+        openSet.clear();
+        expanded = 0;
+
+        // Open and push the start node to queue.
+        workspace.open(from, 0, -1);
+        heuristic.setTarget(to);
+        int h = heuristic.estimate(from);
+        openSet.push(from, h, h);
+
+        // Main iteration. Each time we loose one node with the minimum total cost.
+        // Then add its neighbors into the queue.
+        while (!openSet.isEmpty()) {
+            int cur = openSet.pop();
+            // A cell improved after being pushed may be in the open set more than once, skip the stale entries.
+            if (workspace.isClosed(cur))
+                continue;
+            if (cur == to) {
+                return workspace.gScore[cur];
+            }
+            workspace.close(cur);
+            expanded++;
+            int g_score = workspace.gScore[cur] + 1;
+            for (int offset : neighbors) {
+                int neighbor = cur + offset;
+                // The border is all walls, so a neighbor index is always inside the map.
+                if (!grid.isFree(neighbor) || workspace.isClosed(neighbor))
+                    continue;
+                if (!workspace.isVisited(neighbor) || g_score < workspace.gScore[neighbor]) {
+                    workspace.open(neighbor, g_score, cur);
+                    h = heuristic.estimate(neighbor);
+                    openSet.push(neighbor, g_score + h, h);
+                }
             }
         }
-        this.width = width;
-        this.height = height;
+        return 0;
     }
 
     /**
-     * Get the up, down, left and right valid neighbors.
+     * Bidirectional shortest path generating function.
+     * A single frontier growing from the start all the way to the goal covers a disc whose radius
+     * is the whole distance. Growing one breadth first frontier from each end until they meet
+     * covers two discs of half the radius, which is about half the area on an open map.
+     *
+     * Each round expands one complete layer of the smaller frontier. While doing so, every edge
+     * reaching a cell already labelled by the other side gives a path, and the shortest of them is
+     * returned at the end of the layer. This is proven optimal: before the layer the two labelled
+     * regions were disjoint, so the shortest path is longer than the sum of the two depths, and the
+     * edge of the shortest path which leaves the current layer must reach the other region.
+     * The forward side uses the same workspace as A*, the backward side a second one.
      *
-     * @param node the current node.
-     * @return the array of the neighbors
+     * @param start  the Point of start.
+     * @param goal   the Point of the goal.
+     * @param width  the width of the map.
+     * @param height the height of the map.
+     * @return the shortest path from start to goal or 0 if no path exists.
      */
-    private ArrayList<AStarNode> getNeighbors(AStarNode node) {
-        ArrayList<AStarNode> ret = new ArrayList<AStarNode>();
-        Point point = node.node.point;
-        if (point.row - 1 >= 0 && graph[point.row - 1][point.col].property != '#') {
-            ret.add(calc_graph[point.row - 1][point.col]);
+    public int getShortestPathBidirectional(Point start, Point goal, int width, int height) {
+        int from = grid.index(start);
+        int to = grid.index(goal);
+        expanded = 0;
+        if (from == to) {
+            return 0;
         }
-        if (point.row + 1 < height && graph[point.row + 1][point.col].property != '#') {
-            ret.add(calc_graph[point.row + 1][point.col]);
+        if (reverseWorkspace == null) {
+            reverseWorkspace = new SearchWorkspace(grid.size());
         }
-        if (point.col - 1 >= 0 && graph[point.row][point.col - 1].property != '#') {
-            ret.add(calc_graph[point.row][point.col - 1]);
-        }
-        if (point.col + 1 < width && graph[point.row][point.col + 1].property != '#') {
-            ret.add(calc_graph[point.row][point.col + 1]);
+        SearchWorkspace forward = workspace, backward = reverseWorkspace;
+        forward.reset();
+        backward.reset();
+        forward.open(from, 0, -1);
+        backward.open(to, 0, -1);
+        forward.queue[0] = from;
+        backward.queue[0] = to;
+        int forwardHead = 0, forwardTail = 1, backwardHead = 0, backwardTail = 1;
+
+        while (forwardHead < forwardTail && backwardHead < backwardTail) {
+            boolean isForward = forwardTail - forwardHead <= backwardTail - backwardHead;
+            SearchWorkspace side = isForward ? forward : backward;
+            SearchWorkspace other = isForward ? backward : forward;
+            int head = isForward ? forwardHead : backwardHead;
+            int tail = isForward ? forwardTail : backwardTail;
+            int[] queue = side.queue;
+            int best = Integer.MAX_VALUE;
+
+            // Expand exactly one layer.
+            for (int layerEnd = tail; head < layerEnd; head++) {
+                int cur = queue[head];
+                expanded++;
+                for (int offset : neighbors) {
+                    int next = cur + offset;
+                    if (!grid.isFree(next))
+                        continue;
+                    if (other.isVisited(next)) {
+                        best = Math.min(best, side.gScore[cur] + 1 + other.gScore[next]);
+                    }
+                    if (side.isVisited(next))
+                        continue;
+                    side.open(next, side.gScore[cur] + 1, cur);
+                    queue[tail++] = next;
+                }
+            }
+            if (best < Integer.MAX_VALUE) {
+                return best;
+            }
+            if (isForward) {
+                forwardHead = head;
+                forwardTail = tail;
+            } else {
+                backwardHead = head;
+                backwardTail = tail;
+            }
         }
-        return ret;
+        return 0;
     }
 
     /**
-     * A wrapper function for calling from outside.
+     * Distance matrix generating function.
+     * Every move on the grid costs 1, so a breadth first flood from one point already labels its
+     * distance to every other point. Instead of one A* search for every pair of points, we run one
+     * flood from each point except the last, and each flood only has to label the points after it
+     * since the matrix is symmetric.
      *
-     * @param start  the Point of start.
-     * @param goal   the Point of the goal.
-     * @param width  the width of the map.
-     * @param height the height of the map.
-     * @return the shortest path.
+     * @param points the points to calculate distances between.
+     * @return the symmetric distance matrix, where 0 means that the two points are not connected.
      */
-    public int getShortestPath(Point start, Point goal, int width, int height) {
-        return getShortestPath(graph[start.row][start.col], graph[goal.row][goal.col], width, height);
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        int n = points.size();
+        int[][] distances = new int[n][n];
+        for (int i = 0; i < n - 1; i++) {
+            int[] found = getDistances(points.get(i), points.subList(i + 1, n));
+            for (int j = i + 1; j < n; j++) {
+                distances[i][j] = found[j - i - 1];
+                distances[j][i] = distances[i][j];
+            }
+        }
+        return distances;
     }
 
     /**
-     * Shortest path generating function.
+     * Run one breadth first flood from a source, which stops as soon as all of the targets are labelled.
      *
-     * @param start  the Node of the start on the graph.
-     * @param target the Node of the goal on the graph.
-     * @param width  the width of the map.
-     * @param height the height of the map.
-     * @return the shortest path from start to goal or 0 if no path exists.
+     * @param source  the point to flood from.
+     * @param targets the points whose distances are wanted.
+     * @return the distances of the targets, 0 for those which are not connected to the source.
      */
-    public int getShortestPath(Node start, Node target, int width, int height) {
-        visited = new boolean[height][width];
-        closed = new boolean[height][width];
-        calc_graph = new AStarNode[height][width];
-        // Initialization for all calculating variables.
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j++) {
-                calc_graph[i][j] = new AStarNode(graph[i][j], target);
-                visited[i][j] = false;
-                closed[i][j] = false;
+    public int[] getDistances(Point source, List<Point> targets) {
+        if (parallelBfs != null && grid.size() >= parallelThreshold) {
+            return getDistancesParallel(source, targets);
+        }
+        int[] queue = workspace.queue;
+        workspace.reset();
+        int remaining = 0;
+        for (Point point : targets) {
+            int target = grid.index(point);
+            // Targets in another component would keep the flood going until it has labelled everything.
+            if (components != null && !components.isConnected(source, point))
+                continue;
+            if (!workspace.isTarget(target)) {
+                workspace.markTarget(target);
+                remaining++;
             }
         }
 
-        // Construct and push the start node to queue.
-        AStarNode node = new AStarNode(start, target);
-        PriorityQueue<AStarNode> queue;
-        queue = new PriorityQueue<AStarNode>(1000);
-        queue.add(node);
+        int head = 0, tail = 0;
+        queue[tail++] = grid.index(source);
+        workspace.open(queue[0], 0, -1);
+        if (workspace.isTarget(queue[0])) remaining--;
 
-        // Main iteration. Each time we loose one node with the minimum total cost.
-        // Then add its neighbors into the queue.
-        while (queue.size() > 0) {
-            AStarNode cur = queue.poll();
-            if (cur.node.equals(target)) {
-                return cur.g_score;
-            }
-            closed[cur.node.point.row][cur.node.point.col] = true;
-            for (AStarNode neighbor : getNeighbors(cur)) {
-                Point p = neighbor.node.point;
-                if (closed[p.row][p.col])
+        // Label the map layer by layer until every target has got its distance.
+        while (head < tail && remaining > 0) {
+            int cur = queue[head++];
+            for (int offset : neighbors) {
+                int next = cur + offset;
+                if (!grid.isFree(next) || workspace.isVisited(next))
                     continue;
-                int g_score = cur.g_score + 1;
-                boolean v = visited[p.row][p.col];
-                if (!v || g_score < neighbor.g_score) {
-                    visited[p.row][p.col] = true;
-                    neighbor.parent = cur;
-                    neighbor.g_score = g_score;
-                    queue.add(neighbor);
-                }
+                workspace.open(next, workspace.gScore[cur] + 1, cur);
+                queue[tail++] = next;
+                if (workspace.isTarget(next)) remaining--;
             }
         }
-        return 0;
+
+        int[] found = new int[targets.size()];
+        for (int t = 0; t < found.length; t++) {
+            int target = grid.index(targets.get(t));
+            found[t] = workspace.isVisited(target) ? workspace.gScore[target] : 0;
+        }
+        return found;
+    }
+
+    /**
+     * The flood of getDistances on the ParallelBfs, only looking for the targets connected to the source.
+     */
+    private int[] getDistancesParallel(Point source, List<Point> targets) {
+        List<Point> connected = new ArrayList<Point>();
+        for (Point point : targets) {
+            if (components == null || components.isConnected(source, point)) connected.add(point);
+        }
+        int[] found = new int[targets.size()];
+        // The ParallelBfs floods the whole component when it has no target, while all of them are 0.
+        if (connected.isEmpty())
+            return found;
+        int[] distances = parallelBfs.getDistances(source, connected);
+        for (int t = 0, c = 0; t < targets.size(); t++) {
+            if (components == null || components.isConnected(source, targets.get(t))) found[t] = distances[c++];
+        }
+        return found;
     }
 }
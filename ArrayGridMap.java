@@ -0,0 +1,43 @@
+package jp.co.worksap.global;
+
+import java.util.zip.CRC32;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The ArrayGridMap keeps the cells of a GridMap on the heap, one byte per cell. It is the default
+ * storage, the fastest to read.
+ */
+class ArrayGridMap extends GridMap {
+    private final byte[] cells;
+
+    ArrayGridMap(int width, int height) {
+        super(width, height);
+        // The border cells are left as zero, which is WALL.
+        cells = new byte[size()];
+    }
+
+    @Override
+    byte get(int cell) {
+        return cells[cell];
+    }
+
+    @Override
+    void set(int cell, byte value) {
+        cells[cell] = value;
+    }
+
+    @Override
+    public boolean isFree(int cell) {
+        return cells[cell] != WALL;
+    }
+
+    @Override
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(cells);
+        return ((long) width() * 31 + height()) << 32 ^ crc.getValue();
+    }
+}
@@ -0,0 +1,79 @@
+package jp.co.worksap.global;
+
+import java.util.Arrays;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The BinaryHeapOpenList is a binary min heap of cell indices, the general purpose OpenList.
+ * The total score and the heuristic value are packed into one long key so that a comparison is a
+ * single instruction. Improving a cell simply pushes it again; the caller skips the stale entries
+ * of cells which have already been closed.
+ * The backing arrays only ever grow, so a heap reused across queries stops allocating once it
+ * has seen its largest open set.
+ */
+class BinaryHeapOpenList implements OpenList {
+    private long[] keys;
+    private int[] cells;
+    private int size;
+
+    public BinaryHeapOpenList() {
+        keys = new long[1024];
+        cells = new int[1024];
+        size = 0;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void push(int cell, int f_score, int h) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            cells = Arrays.copyOf(cells, size * 2);
+        }
+        long key = ((long) f_score << 32) | (h & 0xffffffffL);
+        // Sift up.
+        int i = size++;
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (keys[p] <= key) break;
+            keys[i] = keys[p];
+            cells[i] = cells[p];
+            i = p;
+        }
+        keys[i] = key;
+        cells[i] = cell;
+    }
+
+    @Override
+    public int pop() {
+        int top = cells[0];
+        size--;
+        long key = keys[size];
+        int cell = cells[size];
+        // Sift down the last entry from the root.
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+            if (keys[child] >= key) break;
+            keys[i] = keys[child];
+            cells[i] = cells[child];
+            i = child;
+        }
+        keys[i] = key;
+        cells[i] = cell;
+        return top;
+    }
+}
@@ -0,0 +1,227 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The BitParallelBfs is a breadth first search which works on 64 cells at once.
+ * The free cells, the visited cells and the frontier are bitsets, one bit per cell and a row of
+ * words per row of the map, with bit j of word w standing for column 64 * w + j. A whole layer of
+ * the search is then a handful of word operations per word of the frontier:
+ *   next = (frontier << 1 | frontier >>> 1 | frontier above | frontier below) & free & ~visited
+ * where the shifts carry the bit crossing a word boundary over from the neighbor word.
+ * The distance of a cell is the number of the layer in which its bit shows up.
+ *
+ * The rows of words are padded with an empty word on each side and an empty row above and below,
+ * so the neighbor words always exist. Only the words next to the current frontier are visited: the
+ * words holding frontier bits are listed, and the next frontier can only appear in those words or
+ * in the 4 words around them.
+ */
+public class BitParallelBfs implements DistanceMatrixProvider {
+    private GridMap grid;
+    // Words per map row and per padded row.
+    private int words, rowWords;
+    private int height;
+
+    private long[] free;
+    private long[] visited;
+    private long[] frontier;
+    private long[] next;
+    // The words holding bits of the frontier and of the next frontier.
+    private int[] frontierWords, nextWords;
+    // Offsets of a word and its 4 neighbor words.
+    private int[] around;
+    // Marks the words already grown in the current layer.
+    private int[] seen;
+    private int generation;
+
+    /**
+     * Build the bitsets of a map.
+     *
+     * @param grid the grid map.
+     */
+    public BitParallelBfs(GridMap grid) {
+        this.grid = grid;
+        height = grid.height();
+        words = (grid.width() + 63) >>> 6;
+        rowWords = words + 2;
+        int size = (height + 2) * rowWords;
+        free = new long[size];
+        visited = new long[size];
+        frontier = new long[size];
+        next = new long[size];
+        // Every word is at most once in a frontier.
+        frontierWords = new int[size];
+        nextWords = new int[size];
+        around = new int[]{0, -1, 1, -rowWords, rowWords};
+        seen = new int[size];
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < grid.width(); col++) {
+                if (grid.isFree(grid.index(row, col))) {
+                    free[word(row, col)] |= 1L << col;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the index of the word holding the bit of the cell.
+     */
+    private int word(int row, int col) {
+        return (row + 1) * rowWords + (col >>> 6) + 1;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        int n = points.size();
+        int[][] distances = new int[n][n];
+        for (int i = 0; i < n - 1; i++) {
+            int[] found = flood(points.get(i), points.subList(i + 1, n), null);
+            for (int j = i + 1; j < n; j++) {
+                distances[i][j] = found[j - i - 1];
+                distances[j][i] = found[j - i - 1];
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Compute the distance from the source to every cell of the map.
+     *
+     * @param source the source of the field.
+     * @return the distances indexed by the cells of the GridMap, -1 for cells which are not reachable.
+     */
+    public int[] getDistanceField(Point source) {
+        int[] field = new int[grid.size()];
+        Arrays.fill(field, -1);
+        flood(source, new ArrayList<Point>(), field);
+        return field;
+    }
+
+    /**
+     * Run the search from a source, layer by layer.
+     *
+     * @param source  the source.
+     * @param targets the points whose distances are wanted.
+     * @param field   if not null, receives the distance of every cell, otherwise the search stops
+     *                as soon as all the targets are found.
+     * @return the distances of the targets, 0 for those which are not reachable.
+     */
+    private int[] flood(Point source, List<Point> targets, int[] field) {
+        int[] found = new int[targets.size()];
+        int remaining = 0;
+        for (int t = 0; t < targets.size(); t++) {
+            if (targets.get(t).equals(source)) continue;
+            found[t] = -1;
+            remaining++;
+        }
+
+        Arrays.fill(visited, 0);
+        int start = word(source.row, source.col);
+        frontier[start] = 1L << source.col;
+        visited[start] = frontier[start];
+        frontierWords[0] = start;
+        int frontierCount = 1;
+        if (field != null) {
+            field[grid.index(source)] = 0;
+        }
+
+        for (int layer = 1; (remaining > 0 || field != null) && frontierCount > 0; layer++) {
+            // Grow the frontier into every word which holds or touches one of its words.
+            int nextCount = 0;
+            generation++;
+            for (int f = 0; f < frontierCount; f++) {
+                int w0 = frontierWords[f];
+                for (int k = 0; k < 5; k++) {
+                    int w = w0 + around[k];
+                    // Padding words are never free, which also keeps w - rowWords and w + rowWords in range.
+                    if (seen[w] == generation || free[w] == 0)
+                        continue;
+                    seen[w] = generation;
+                    long cur = frontier[w];
+                    long grown = cur << 1 | frontier[w - 1] >>> 63 | cur >>> 1 | frontier[w + 1] << 63
+                            | frontier[w - rowWords] | frontier[w + rowWords];
+                    long bits = grown & free[w] & ~visited[w];
+                    if (bits != 0) {
+                        next[w] = bits;
+                        nextWords[nextCount++] = w;
+                    }
+                }
+            }
+
+            // The frontier of this layer is done with, clear it and swap in the new one.
+            for (int f = 0; f < frontierCount; f++) {
+                frontier[frontierWords[f]] = 0;
+            }
+            long[] swapBits = frontier;
+            frontier = next;
+            next = swapBits;
+            int[] swapWords = frontierWords;
+            frontierWords = nextWords;
+            nextWords = swapWords;
+            frontierCount = nextCount;
+
+            for (int f = 0; f < frontierCount; f++) {
+                int w = frontierWords[f];
+                long bits = frontier[w];
+                visited[w] |= bits;
+                if (field != null) {
+                    // Write the layer into the field for every new cell.
+                    int row = w / rowWords - 1, col0 = (w % rowWords - 1) << 6;
+                    for (; bits != 0; bits &= bits - 1) {
+                        field[grid.index(row, col0 + Long.numberOfTrailingZeros(bits))] = layer;
+                    }
+                }
+            }
+            for (int t = 0; t < targets.size(); t++) {
+                Point target = targets.get(t);
+                if (found[t] < 0 && (frontier[word(target.row, target.col)] & 1L << target.col) != 0) {
+                    found[t] = layer;
+                    remaining--;
+                }
+            }
+        }
+
+        // Leave the frontier clean for the next search.
+        for (int f = 0; f < frontierCount; f++) {
+            frontier[frontierWords[f]] = 0;
+        }
+        for (int t = 0; t < found.length; t++) {
+            if (found[t] < 0) found[t] = 0;
+        }
+        return found;
+    }
+
+    /**
+     * Compare with the breadth first floods of AStarPathFinder on maps of the MapGenerator.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = 1000;
+        MapGenerator generator = new MapGenerator(size, size);
+        long floodTime = 0, bitTime = 0;
+        for (int m = 0; m < 4; m++) {
+            GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+            List<Point> points = new ArrayList<Point>();
+            for (int cell = 0; cell < grid.size(); cell++) {
+                if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+            }
+            long t0 = System.nanoTime();
+            int[][] expected = new AStarPathFinder(grid).getDistanceMatrix(points);
+            long t1 = System.nanoTime();
+            int[][] actual = new BitParallelBfs(grid).getDistanceMatrix(points);
+            long t2 = System.nanoTime();
+            if (!Arrays.deepEquals(expected, actual))
+                throw new IllegalStateException("Different distance matrices");
+            floodTime += t1 - t0;
+            bitTime += t2 - t1;
+        }
+        System.out.println("Floods: " + floodTime / 1000000 + " ms, bit-parallel: " + bitTime / 1000000 + " ms");
+    }
+}
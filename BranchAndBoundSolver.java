@@ -0,0 +1,398 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The BranchAndBoundSolver finds the exact course by a depth first search over the orders of the
+ * checkpoints, which prunes every partial course that cannot beat the best one found so far. It
+ * needs no table over the subsets, so it is not bounded by memory like the dynamic programming,
+ * only by how well the bounds prune.
+ *
+ * - The first best course is the nearest neighbor course, improved by 2-opt: reversing a part of
+ *   the course as long as that makes it shorter.
+ * - From checkpoint c with the set R of checkpoints left, the rest of the course goes from c into R,
+ *   through all of R and from R to the goal. Its part through R is a path, thus a spanning tree of
+ *   R, so the rest is at least the minimum spanning tree of R plus the shortest edge from c into R
+ *   plus the shortest edge from R to the goal. A partial course whose length and this bound reach
+ *   the best course is cut. The spanning trees are kept by set in a hash table as well.
+ * - The bound is tightened with the penalties of Held and Karp. Adding a penalty p(v) to every
+ *   edge of checkpoint v adds 2 * p(v) to every course, which still meets v twice, but not to every
+ *   tree. Before the search, the penalties are moved by subgradient steps, up for the checkpoints
+ *   with too many edges in the tree of the whole course and down for the leaves, until that tree
+ *   is as long as possible; the bounds of the search are then computed on the penalized distances.
+ * - The next checkpoints are tried nearest first, so that short courses are found early.
+ * - Two partial courses with the same last checkpoint and the same checkpoints left have the same
+ *   best rest, so only the shorter one needs to go on. The shortest length seen for such a state is
+ *   kept in a fixed size hash table, where a newer state simply replaces an older one.
+ */
+public class BranchAndBoundSolver implements CourseSolver {
+    // The last checkpoint of a state takes the low bits of its key.
+    private static final int NODE_BITS = 6;
+    // The largest number of checkpoints whose states fit in a long key.
+    private static final int MAX_CHECKPOINTS = 64 - NODE_BITS;
+    private static final int TABLE_BITS = 22;
+    private static final int SUBGRADIENT_ITERATIONS = 300;
+
+    private int n;
+    private int[][] distances;
+    private int goalIndex;
+    // For every checkpoint and the start, the checkpoints nearest first.
+    private int[][] nearest;
+    // The penalty of every checkpoint, 0 for the start and the goal, and the distances with the
+    // penalties of both ends added, on which the spanning trees are computed.
+    private int[] penalty;
+    private int[][] weights;
+    private int best;
+    private long[] stateKeys = new long[1 << TABLE_BITS];
+    private int[] stateLengths = new int[1 << TABLE_BITS];
+    private long[] treeKeys = new long[1 << TABLE_BITS];
+    private int[] treeWeights = new int[1 << TABLE_BITS];
+    // Scratch of the spanning trees.
+    private int[] members, key;
+    private long expanded;
+
+    /**
+     * @return the number of partial courses expanded by the last solve.
+     */
+    public long getExpandedCount() {
+        return expanded;
+    }
+
+    @Override
+    public int solve(int[][] distances, int numCheckPoints) {
+        n = numCheckPoints;
+        this.distances = distances;
+        int startIndex = n;
+        goalIndex = n + 1;
+        if (n == 0) {
+            return distances[startIndex][goalIndex];
+        }
+        if (n > MAX_CHECKPOINTS)
+            throw new IllegalArgumentException("Too many checkpoints for the states: " + n);
+
+        nearest = new int[n + 1][];
+        for (int from = 0; from <= n; from++) {
+            nearest[from] = sortByDistance(from);
+        }
+        Arrays.fill(stateKeys, 0);
+        Arrays.fill(treeKeys, 0);
+        members = new int[n];
+        key = new int[n];
+        expanded = 0;
+        best = initialCourse();
+        choosePenalties();
+        search(startIndex, (1L << n) - 1, 0);
+        return best;
+    }
+
+    /**
+     * @return the checkpoints other than from, nearest to from first.
+     */
+    private int[] sortByDistance(int from) {
+        // The distance in the high bits and the checkpoint in the low bits sort in one go.
+        long[] sorted = new long[from < n ? n - 1 : n];
+        int count = 0;
+        for (int to = 0; to < n; to++) {
+            if (to != from) sorted[count++] = (long) distances[from][to] << 32 | to;
+        }
+        Arrays.sort(sorted);
+        int[] order = new int[count];
+        for (int k = 0; k < count; k++) order[k] = (int) sorted[k];
+        return order;
+    }
+
+    /**
+     * @return the length of the nearest neighbor course after 2-opt.
+     */
+    private int initialCourse() {
+        // course[0] is the start and course[n + 1] the goal.
+        int[] course = new int[n + 2];
+        course[0] = n;
+        course[n + 1] = goalIndex;
+        boolean[] used = new boolean[n];
+        for (int k = 1; k <= n; k++) {
+            for (int next : nearest[course[k - 1]]) {
+                if (!used[next]) {
+                    used[next] = true;
+                    course[k] = next;
+                    break;
+                }
+            }
+        }
+        // Reversing course[i..j] replaces the edges (i - 1, i) and (j, j + 1) by (i - 1, j) and (i, j + 1).
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 1; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    int before = distances[course[i - 1]][course[i]] + distances[course[j]][course[j + 1]];
+                    int after = distances[course[i - 1]][course[j]] + distances[course[i]][course[j + 1]];
+                    if (after < before) {
+                        for (int a = i, b = j; a < b; a++, b--) {
+                            int swap = course[a];
+                            course[a] = course[b];
+                            course[b] = swap;
+                        }
+                        improved = true;
+                    }
+                }
+            }
+        }
+        int length = 0;
+        for (int k = 0; k <= n; k++) length += distances[course[k]][course[k + 1]];
+        return length;
+    }
+
+    /**
+     * Choose the penalties of the checkpoints which make the bound of the whole course the
+     * tightest, by subgradient optimization, and compute the weights from them.
+     */
+    private void choosePenalties() {
+        int[] trial = new int[n + 2];
+        penalty = new int[n + 2];
+        weights = new int[n + 2][n + 2];
+        int[] degree = new int[n];
+        int[] parent = new int[n];
+        int bestBound = Integer.MIN_VALUE;
+        double scale = 2;
+        for (int iteration = 0, stalled = 0; iteration < SUBGRADIENT_ITERATIONS; iteration++) {
+            for (int i = 0; i < n + 2; i++) {
+                for (int j = 0; j < n + 2; j++) weights[i][j] = distances[i][j] + trial[i] + trial[j];
+            }
+            int bound = treeDegrees(trial, degree, parent);
+            if (bound > bestBound) {
+                bestBound = bound;
+                System.arraycopy(trial, 0, penalty, 0, n);
+                stalled = 0;
+            } else if (++stalled == 10) {
+                scale /= 2;
+                stalled = 0;
+            }
+            int norm = 0;
+            for (int v = 0; v < n; v++) norm += (degree[v] - 2) * (degree[v] - 2);
+            // Every checkpoint has two neighbors: the tree is the best course.
+            if (norm == 0 || bound >= best)
+                break;
+            int step = (int) Math.ceil(scale * (best - bound) / norm);
+            for (int v = 0; v < n; v++) trial[v] += step * (degree[v] - 2);
+        }
+        for (int i = 0; i < n + 2; i++) {
+            for (int j = 0; j < n + 2; j++) weights[i][j] = distances[i][j] + penalty[i] + penalty[j];
+        }
+    }
+
+    /**
+     * Compute the bound of the whole course on the current weights, and the degree of every
+     * checkpoint in its tree: the spanning tree of the checkpoints, the shortest edge from the start
+     * and the shortest edge to the goal.
+     *
+     * @param trial  the penalties the weights were computed with.
+     * @param degree receives the degrees of the checkpoints.
+     * @param parent scratch of the spanning tree.
+     * @return the bound.
+     */
+    private int treeDegrees(int[] trial, int[] degree, int[] parent) {
+        Arrays.fill(degree, 0);
+        int bound = 0;
+        int enter = 0, leave = 0;
+        for (int v = 0; v < n; v++) {
+            if (weights[n][v] < weights[n][enter]) enter = v;
+            if (weights[v][goalIndex] < weights[leave][goalIndex]) leave = v;
+            bound -= 2 * trial[v];
+        }
+        bound += weights[n][enter] + weights[leave][goalIndex];
+        degree[enter]++;
+        degree[leave]++;
+        // Prim's algorithm, members[0 .. size) being the tree.
+        for (int k = 0; k < n; k++) {
+            members[k] = k;
+            key[k] = weights[0][k];
+            parent[k] = 0;
+        }
+        for (int size = 1; size < n; size++) {
+            int closest = size;
+            for (int k = size + 1; k < n; k++) {
+                if (key[k] < key[closest]) closest = k;
+            }
+            int added = members[closest];
+            bound += key[closest];
+            degree[added]++;
+            degree[parent[closest]]++;
+            members[closest] = members[size];
+            key[closest] = key[size];
+            parent[closest] = parent[size];
+            members[size] = added;
+            for (int k = size + 1; k < n; k++) {
+                if (weights[added][members[k]] < key[k]) {
+                    key[k] = weights[added][members[k]];
+                    parent[k] = added;
+                }
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Extend a partial course in every possible way that may still beat the best course.
+     *
+     * @param current   the last checkpoint of the course, or the start.
+     * @param remaining the checkpoints left, one bit each.
+     * @param length    the length of the course so far.
+     */
+    private void search(int current, long remaining, int length) {
+        if (remaining == 0) {
+            best = Math.min(best, length + distances[current][goalIndex]);
+            return;
+        }
+        if (!isShortestVisit(current, remaining, length) || length + lowerBound(current, remaining) >= best)
+            return;
+        expanded++;
+        for (int next : nearest[current]) {
+            if ((remaining & 1L << next) == 0)
+                continue;
+            int extended = length + distances[current][next];
+            if (extended < best) search(next, remaining & ~(1L << next), extended);
+        }
+    }
+
+    /**
+     * Look up the state of a partial course in the table and store it if it is the shortest so far.
+     *
+     * @return false if a course at least as short already reached the same state.
+     */
+    private boolean isShortestVisit(int current, long remaining, int length) {
+        long state = remaining << NODE_BITS | current;
+        int slot = slot(state);
+        if (stateKeys[slot] == state && stateLengths[slot] <= length)
+            return false;
+        stateKeys[slot] = state;
+        stateLengths[slot] = length;
+        return true;
+    }
+
+    /**
+     * @return a lower bound of the rest of the course from current through the remaining
+     * checkpoints to the goal.
+     */
+    private int lowerBound(int current, long remaining) {
+        int enter = Integer.MAX_VALUE, leave = Integer.MAX_VALUE;
+        int penalties = 0;
+        for (long bits = remaining; bits != 0; bits &= bits - 1) {
+            int checkpoint = Long.numberOfTrailingZeros(bits);
+            enter = Math.min(enter, weights[current][checkpoint]);
+            leave = Math.min(leave, weights[checkpoint][goalIndex]);
+            penalties += penalty[checkpoint];
+        }
+        // The rest of the course meets every remaining checkpoint twice and current once.
+        return spanningTree(remaining) + enter + leave - 2 * penalties - penalty[current];
+    }
+
+    /**
+     * @return the weight of the minimum spanning tree of a set of checkpoints. It only depends on
+     * the set, so it is kept in a hash table like the states, and shared by all the last checkpoints.
+     */
+    private int spanningTree(long set) {
+        int slot = slot(set);
+        if (treeKeys[slot] == set)
+            return treeWeights[slot];
+        int count = 0;
+        for (long bits = set; bits != 0; bits &= bits - 1) {
+            members[count++] = Long.numberOfTrailingZeros(bits);
+        }
+        // Prim's algorithm on the complete graph of the remaining checkpoints.
+        int tree = 0;
+        for (int k = 1; k < count; k++) key[k] = weights[members[0]][members[k]];
+        for (int size = 1; size < count; size++) {
+            int closest = size;
+            for (int k = size + 1; k < count; k++) {
+                if (key[k] < key[closest]) closest = k;
+            }
+            tree += key[closest];
+            // Move the closest checkpoint into the tree, at the end of the tree part of members.
+            int added = members[closest];
+            members[closest] = members[size];
+            members[size] = added;
+            key[closest] = key[size];
+            for (int k = size + 1; k < count; k++) {
+                key[k] = Math.min(key[k], weights[added][members[k]]);
+            }
+        }
+        treeKeys[slot] = set;
+        treeWeights[slot] = tree;
+        return tree;
+    }
+
+    /**
+     * @return the slot of a key in the hash tables.
+     */
+    private static int slot(long key) {
+        return (int) (key * 0x9E3779B97F4A7C15L >>> (64 - TABLE_BITS));
+    }
+
+    /**
+     * @return the distance matrix of the start, the goal and checkpoints at random free cells of a
+     * map of the MapGenerator, in the order of Orienteering.
+     */
+    static int[][] randomCourse(int n, GridMap grid, Random rand) {
+        List<Point> points = new ArrayList<Point>();
+        while (points.size() < n + 2) {
+            Point point = new Point(rand.nextInt(grid.height()), rand.nextInt(grid.width()));
+            if (grid.isFree(grid.index(point)) && !points.contains(point)) points.add(point);
+        }
+        return new AStarPathFinder(grid).getDistanceMatrix(points);
+    }
+
+    /**
+     * @return whether no two points of the matrix are disconnected.
+     */
+    private static boolean isConnected(int[][] distances) {
+        for (int i = 0; i < distances.length; i++) {
+            for (int j = i + 1; j < distances.length; j++) {
+                if (distances[i][j] == 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare with the dynamic programming on courses of 18 to 24 checkpoints on maps of the
+     * MapGenerator, then go on alone with larger courses.
+     *
+     * @param args the largest number of checkpoints, 40 by default.
+     */
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int size = 200;
+        MapGenerator generator = new MapGenerator(size, size);
+        Random rand = new Random(25);
+        BranchAndBoundSolver solver = new BranchAndBoundSolver();
+        for (int n = 18; n <= largest; n += n < 24 ? 2 : 4) {
+            int[][] distances;
+            do {
+                GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+                distances = randomCourse(n, grid, rand);
+            } while (!isConnected(distances));
+            long t0 = System.nanoTime();
+            int answer = solver.solve(distances, n);
+            long t1 = System.nanoTime();
+            String line = "n = " + n + ": branch and bound " + (t1 - t0) / 1000000 + " ms, "
+                    + solver.getExpandedCount() + " courses expanded";
+            if (n <= 24) {
+                int expected = new LayeredHeldKarpSolver().solve(distances, n);
+                long t2 = System.nanoTime();
+                if (answer != expected)
+                    throw new IllegalStateException("Different answers");
+                line += ", dynamic programming " + (t2 - t1) / 1000000 + " ms";
+            }
+            System.out.println(line);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The BucketOpenList is an OpenList for searches where scores are small integers, which is the case
+ * on the grid since every move costs 1. It is a bucket queue (Dial's algorithm): instead of ordering
+ * the cells by comparison, a cell with total score f is put into bucket f, and pop takes from the
+ * first non-empty bucket. With a consistent heuristic the minimum total score never decreases, so
+ * finding that bucket is a cursor which only moves forward.
+ *
+ * To keep the tie-breaking on the heuristic value, every bucket is split again by h, and pop takes
+ * from the smallest non-empty h. The scores of the cells in the list only span a few values (a move
+ * changes g by 1 and h by at most 1), so the f buckets are kept in a small ring indexed by f & mask,
+ * which grows if a larger span ever shows up.
+ *
+ * The lists are linked through per cell arrays, so pushing a cell which is already in the list
+ * moves it instead of leaving a stale duplicate, and push and pop are both O(1) without allocation.
+ */
+class BucketOpenList implements OpenList {
+    private static final int NONE = -1;
+
+    // Per cell links and keys, valid while the stamp of the cell is the current generation.
+    private final int[] next;
+    private final int[] prev;
+    private final int[] fOf;
+    private final int[] hOf;
+    private final int[] stamp;
+    private int generation;
+
+    // heads[f & mask][h] is the first cell in the list of total score f and heuristic value h.
+    private int[][] heads;
+    // Number of cells and the smallest possibly non-empty h of every f bucket.
+    private int[] count;
+    private int[] minH;
+    private int mask;
+    // All the cells in the list have total scores in [baseF, maxF].
+    private int baseF, maxF;
+    private int size;
+
+    // The lists which became non-empty since the last clear, so clear only resets those.
+    private int[] dirtySlot;
+    private int[] dirtyH;
+    private int dirtyCount;
+
+    /**
+     * Construct a bucket queue for a map.
+     *
+     * @param size the number of cells on the map.
+     */
+    public BucketOpenList(int size) {
+        next = new int[size];
+        prev = new int[size];
+        fOf = new int[size];
+        hOf = new int[size];
+        stamp = new int[size];
+        generation = 1;
+        dirtySlot = new int[1024];
+        dirtyH = new int[1024];
+        allocateRing(8);
+    }
+
+    private void allocateRing(int ringSize) {
+        mask = ringSize - 1;
+        heads = new int[ringSize][];
+        for (int i = 0; i < ringSize; i++) {
+            heads[i] = new int[64];
+            Arrays.fill(heads[i], NONE);
+        }
+        count = new int[ringSize];
+        minH = new int[ringSize];
+        Arrays.fill(minH, Integer.MAX_VALUE);
+        dirtyCount = 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < dirtyCount; i++) {
+            heads[dirtySlot[i]][dirtyH[i]] = NONE;
+        }
+        dirtyCount = 0;
+        Arrays.fill(count, 0);
+        Arrays.fill(minH, Integer.MAX_VALUE);
+        size = 0;
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            generation = 1;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public void push(int cell, int f_score, int h) {
+        if (stamp[cell] == generation) {
+            unlink(cell);
+        }
+        if (size == 0) {
+            baseF = f_score;
+            maxF = f_score;
+        } else {
+            int low = Math.min(baseF, f_score);
+            int high = Math.max(maxF, f_score);
+            if (high - low > mask) {
+                growRing(high - low + 1);
+            }
+            baseF = low;
+            maxF = high;
+        }
+        link(cell, f_score, h);
+    }
+
+    @Override
+    public int pop() {
+        int slot = baseF & mask;
+        while (count[slot] == 0) {
+            baseF++;
+            slot = baseF & mask;
+        }
+        int[] lists = heads[slot];
+        int h = minH[slot];
+        while (lists[h] == NONE) h++;
+        minH[slot] = h;
+        int cell = lists[h];
+        unlink(cell);
+        return cell;
+    }
+
+    private void link(int cell, int f_score, int h) {
+        int slot = f_score & mask;
+        int[] lists = heads[slot];
+        if (h >= lists.length) {
+            int oldLength = lists.length;
+            lists = Arrays.copyOf(lists, Math.max(h + 1, oldLength * 2));
+            Arrays.fill(lists, oldLength, lists.length, NONE);
+            heads[slot] = lists;
+        }
+        int first = lists[h];
+        if (first == NONE) {
+            markDirty(slot, h);
+        } else {
+            prev[first] = cell;
+        }
+        next[cell] = first;
+        prev[cell] = NONE;
+        lists[h] = cell;
+        fOf[cell] = f_score;
+        hOf[cell] = h;
+        stamp[cell] = generation;
+        count[slot]++;
+        if (h < minH[slot]) minH[slot] = h;
+        size++;
+    }
+
+    private void unlink(int cell) {
+        int slot = fOf[cell] & mask;
+        if (prev[cell] == NONE) {
+            heads[slot][hOf[cell]] = next[cell];
+        } else {
+            next[prev[cell]] = next[cell];
+        }
+        if (next[cell] != NONE) {
+            prev[next[cell]] = prev[cell];
+        }
+        stamp[cell] = 0;
+        size--;
+        if (--count[slot] == 0) {
+            minH[slot] = Integer.MAX_VALUE;
+        }
+    }
+
+    private void markDirty(int slot, int h) {
+        if (dirtyCount == dirtySlot.length) {
+            dirtySlot = Arrays.copyOf(dirtySlot, dirtyCount * 2);
+            dirtyH = Arrays.copyOf(dirtyH, dirtyCount * 2);
+        }
+        dirtySlot[dirtyCount] = slot;
+        dirtyH[dirtyCount] = h;
+        dirtyCount++;
+    }
+
+    /**
+     * Make the ring large enough for the given span of total scores and move all the cells over.
+     * Only happens when the heuristic lets the scores spread more than they ever did before.
+     *
+     * @param span the number of different total scores which must fit.
+     */
+    private void growRing(int span) {
+        int[] cells = new int[size];
+        int n = 0;
+        for (int i = 0; i < dirtyCount; i++) {
+            for (int cell = heads[dirtySlot[i]][dirtyH[i]]; cell != NONE; cell = next[cell]) {
+                cells[n++] = cell;
+            }
+            // A list can be marked more than once, make sure it is collected only once.
+            heads[dirtySlot[i]][dirtyH[i]] = NONE;
+        }
+        int ringSize = mask + 1;
+        while (ringSize < span) ringSize *= 2;
+        allocateRing(ringSize);
+        size = 0;
+        for (int i = 0; i < n; i++) {
+            link(cells[i], fOf[cells[i]], hOf[cells[i]]);
+        }
+    }
+
+    /**
+     * Benchmark against the BinaryHeapOpenList on maps of the MapGenerator.
+     * Every pair of marked cells on every map is searched with both lists, the path lengths must agree.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int[] sizes = {100, 400};
+        int numMaps = 20;
+        for (int size : sizes) {
+            MapGenerator generator = new MapGenerator(size, size);
+            long heapTime = 0, bucketTime = 0, queries = 0;
+            for (int m = 0; m <= numMaps; m++) {
+                AStarPathFinder heap = new AStarPathFinder(generator.generate(), size, size);
+                GridMap grid = heap.getGrid();
+                AStarPathFinder bucket = new AStarPathFinder(grid);
+                bucket.setOpenList(new BucketOpenList(grid.size()));
+
+                List<Point> points = new ArrayList<Point>();
+                for (int cell = 0; cell < grid.size(); cell++) {
+                    if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+                }
+                long t0 = System.nanoTime();
+                int[] expected = new int[points.size() * points.size()];
+                for (int i = 0; i < points.size(); i++)
+                    for (int j = i + 1; j < points.size(); j++)
+                        expected[i * points.size() + j] = heap.getShortestPath(points.get(i), points.get(j), size, size);
+                long t1 = System.nanoTime();
+                for (int i = 0; i < points.size(); i++)
+                    for (int j = i + 1; j < points.size(); j++)
+                        if (bucket.getShortestPath(points.get(i), points.get(j), size, size) != expected[i * points.size() + j])
+                            throw new IllegalStateException("Different path lengths for " + points.get(i) + " " + points.get(j));
+                long t2 = System.nanoTime();
+                // The first map only warms up the JIT.
+                if (m > 0) {
+                    heapTime += t1 - t0;
+                    bucketTime += t2 - t1;
+                    queries += points.size() * (points.size() - 1) / 2;
+                }
+            }
+            System.out.println(size + "x" + size + ": " + queries + " queries, heap "
+                    + heapTime / 1000000 + " ms, bucket " + bucketTime / 1000000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package jp.co.worksap.global;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The CompressedPathDatabase (CPD) stores, for every free cell as a source, the first move of a
+ * shortest path to every other free cell. The distance between two cells is then found without any
+ * search, by following the first moves from the source until the target is reached: from every
+ * cell on the way, the first move towards the target is again on a shortest path.
+ *
+ * A table of first moves has one entry per pair of free cells, which is far too large as it is.
+ * But seen from one source, the first move is the same for whole regions of the map, so the cells
+ * are ordered by a depth first traversal, which keeps nearby cells close in the order, and the
+ * row of each source is run-length compressed along that order. The targets which do not matter,
+ * the source itself and the cells of other components, take the move of the run before them.
+ * A run is one int, its first rank shifted left by 2 with the move in the low 2 bits, in the order
+ * of GridMap.neighborOffsets(). The move towards a target is found by binary search in the runs.
+ *
+ * Building runs one breadth first search per free cell, so it is meant to be done offline for maps
+ * which are reused. The database is written to a file and memory mapped at the next start. The
+ * file holds a header (magic, version, width, height, checksum of the map, number of free cells,
+ * number of components, number of runs), the rank of every cell (-1 for walls), the first rank of
+ * every component plus the end, the index of the first run of every source plus the end, and the
+ * runs, all ints in big endian. The traversal ranks one component after the other, so two cells are
+ * connected when their ranks fall in the same range, and loading needs no pass over the map.
+ */
+public class CompressedPathDatabase implements PathFinder, DistanceMatrixProvider {
+    private static final int MAGIC = 0x43504431;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 36;
+
+    private final GridMap grid;
+    private final int[] neighbors;
+    private final int freeCount;
+    // The rank of every cell in the traversal order, -1 for walls.
+    private final IntBuffer ranks;
+    // The ranks of component c are componentStart[c] .. componentStart[c + 1]). Pairs in different
+    // components have no path to follow.
+    private final IntBuffer componentStart;
+    // The runs of the source of rank r are runs[runStart[r] .. runStart[r + 1]).
+    private final IntBuffer runStart;
+    private final IntBuffer runs;
+
+    private CompressedPathDatabase(GridMap grid, int freeCount, IntBuffer ranks, IntBuffer componentStart,
+                                   IntBuffer runStart, IntBuffer runs) {
+        this.grid = grid;
+        this.neighbors = grid.neighborOffsets();
+        this.freeCount = freeCount;
+        this.ranks = ranks;
+        this.componentStart = componentStart;
+        this.runStart = runStart;
+        this.runs = runs;
+    }
+
+    /**
+     * @return the number of runs of all the sources.
+     */
+    public int runCount() {
+        return runs.limit();
+    }
+
+    /**
+     * @param from the cell of the source.
+     * @param to   the cell of the target.
+     * @return the direction of the first move from the source towards the target.
+     */
+    public int firstMove(int from, int to) {
+        int target = ranks.get(to);
+        int source = ranks.get(from);
+        // The last run starting at or before the target. The first run of a source starts at 0.
+        int lo = runStart.get(source), hi = runStart.get(source + 1) - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (runs.get(mid) >>> 2 <= target) lo = mid;
+            else hi = mid - 1;
+        }
+        return runs.get(lo) & 3;
+    }
+
+    /**
+     * @param rank the rank of a free cell.
+     * @return the component of the cell.
+     */
+    private int componentOf(int rank) {
+        // The last component starting at or before the rank. The first one starts at 0.
+        int lo = 0, hi = componentStart.limit() - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (componentStart.get(mid) <= rank) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    @Override
+    public int getShortestPath(Point start, Point goal, int width, int height) {
+        int cur = grid.index(start), to = grid.index(goal);
+        int source = ranks.get(cur), target = ranks.get(to);
+        if (source < 0 || target < 0 || componentOf(source) != componentOf(target))
+            return 0;
+        int distance = 0;
+        while (cur != to) {
+            cur += neighbors[firstMove(cur, to)];
+            distance++;
+        }
+        return distance;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        int n = points.size();
+        int[][] distances = new int[n][n];
+        for (int i = 0; i < n - 1; i++) {
+            for (int j = i + 1; j < n; j++) {
+                distances[i][j] = getShortestPath(points.get(i), points.get(j), grid.width(), grid.height());
+                distances[j][i] = distances[i][j];
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * Compute the database of a map.
+     *
+     * @param grid the grid map.
+     * @return the database.
+     */
+    public static CompressedPathDatabase build(GridMap grid) {
+        int size = grid.size();
+        int[] neighbors = grid.neighborOffsets();
+
+        // Depth first order, one component after the other.
+        int[] rank = new int[size];
+        Arrays.fill(rank, -1);
+        int[] cellAt = new int[size];
+        int[] stack = new int[size * 4 + 1];
+        int freeCount = 0;
+        IntList componentStart = new IntList();
+        for (int cell = 0; cell < size; cell++) {
+            if (!grid.isFree(cell) || rank[cell] >= 0)
+                continue;
+            componentStart.add(freeCount);
+            int top = 0;
+            stack[top++] = cell;
+            while (top > 0) {
+                int cur = stack[--top];
+                if (rank[cur] >= 0)
+                    continue;
+                rank[cur] = freeCount;
+                cellAt[freeCount++] = cur;
+                for (int d = neighbors.length - 1; d >= 0; d--) {
+                    int next = cur + neighbors[d];
+                    if (grid.isFree(next) && rank[next] < 0) stack[top++] = next;
+                }
+            }
+        }
+        componentStart.add(freeCount);
+
+        int[] runStart = new int[freeCount + 1];
+        IntList runs = new IntList();
+        SearchWorkspace workspace = new SearchWorkspace(size);
+        int[] queue = workspace.queue;
+        // The first move of the path to every cell reached, inherited from the parent.
+        int[] move = new int[size];
+        for (int source = 0; source < freeCount; source++) {
+            runStart[source] = runs.size;
+            int from = cellAt[source];
+            workspace.reset();
+            workspace.open(from, 0, -1);
+            int head = 0, tail = 0;
+            queue[tail++] = from;
+            while (head < tail) {
+                int cur = queue[head++];
+                for (int d = 0; d < neighbors.length; d++) {
+                    int next = cur + neighbors[d];
+                    if (!grid.isFree(next) || workspace.isVisited(next))
+                        continue;
+                    workspace.open(next, workspace.gScore[cur] + 1, cur);
+                    move[next] = cur == from ? d : move[cur];
+                    queue[tail++] = next;
+                }
+            }
+
+            int current = -1;
+            for (int target = 0; target < freeCount; target++) {
+                int cell = cellAt[target];
+                if (cell == from || !workspace.isVisited(cell) || move[cell] == current)
+                    continue;
+                // The first run covers the targets which do not matter before it as well.
+                runs.add((current < 0 ? 0 : target) << 2 | move[cell]);
+                current = move[cell];
+            }
+        }
+        runStart[freeCount] = runs.size;
+        return new CompressedPathDatabase(grid, freeCount, IntBuffer.wrap(rank),
+                IntBuffer.wrap(Arrays.copyOf(componentStart.values, componentStart.size)),
+                IntBuffer.wrap(runStart), IntBuffer.wrap(Arrays.copyOf(runs.values, runs.size)));
+    }
+
+    /**
+     * Write the database to a file.
+     *
+     * @param file the file.
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(grid.width());
+            out.writeInt(grid.height());
+            out.writeLong(grid.checksum());
+            out.writeInt(freeCount);
+            out.writeInt(componentStart.limit() - 1);
+            out.writeInt(runs.limit());
+            for (int i = 0; i < ranks.limit(); i++) out.writeInt(ranks.get(i));
+            for (int i = 0; i < componentStart.limit(); i++) out.writeInt(componentStart.get(i));
+            for (int i = 0; i < runStart.limit(); i++) out.writeInt(runStart.get(i));
+            for (int i = 0; i < runs.limit(); i++) out.writeInt(runs.get(i));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Memory map a database from a file.
+     *
+     * @param file the file.
+     * @param grid the map the database should belong to.
+     * @return the database, or null if the file was written for another map or another version.
+     * @throws IOException if the file cannot be read or is too large to be memory mapped.
+     */
+    public static CompressedPathDatabase load(File file, GridMap grid) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_BYTES)
+                return null;
+            // The file is memory mapped in one piece, which is at most Integer.MAX_VALUE bytes.
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("The compressed path database " + file + " is too large to be memory mapped: "
+                        + channel.size() + " bytes");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getInt() != grid.width() || buffer.getInt() != grid.height()
+                    || buffer.getLong() != grid.checksum())
+                return null;
+            int freeCount = buffer.getInt();
+            int componentCount = buffer.getInt();
+            int runCount = buffer.getInt();
+            long ints = (long) grid.size() + componentCount + 1 + freeCount + 1 + runCount;
+            if (channel.size() != HEADER_BYTES + 4 * ints)
+                return null;
+            // The mapping stays valid after the channel is closed.
+            IntBuffer body = buffer.slice().asIntBuffer();
+            IntBuffer ranks = slice(body, 0, grid.size());
+            int offset = grid.size();
+            IntBuffer componentStart = slice(body, offset, componentCount + 1);
+            offset += componentCount + 1;
+            IntBuffer runStart = slice(body, offset, freeCount + 1);
+            IntBuffer runs = slice(body, offset + freeCount + 1, runCount);
+            return new CompressedPathDatabase(grid, freeCount, ranks, componentStart, runStart, runs);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return a view of length ints of a buffer, starting at offset.
+     */
+    private static IntBuffer slice(IntBuffer ints, int offset, int length) {
+        IntBuffer view = ints.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    /**
+     * Load the database of a map from its file, or build it and write the file if the file does
+     * not exist or belongs to another map.
+     *
+     * @param file the file.
+     * @param grid the grid map.
+     * @return the database.
+     * @throws IOException
+     */
+    public static CompressedPathDatabase loadOrBuild(File file, GridMap grid) throws IOException {
+        if (file.exists()) {
+            CompressedPathDatabase database = load(file, grid);
+            if (database != null)
+                return database;
+        }
+        CompressedPathDatabase database = build(grid);
+        database.write(file);
+        return database;
+    }
+
+    /**
+     * Build the database of maps of the MapGenerator, write and map it back, and compare the
+     * distance matrix with the breadth first floods.
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int size = 120;
+        MapGenerator generator = new MapGenerator(size, size);
+        File file = File.createTempFile("cpd", ".bin");
+        file.deleteOnExit();
+        for (int m = 0; m < 3; m++) {
+            GridMap grid = GridMap.fromRows(m == 0 ? generator.generateMaze() : generator.generate(), size, size);
+            List<Point> points = new ArrayList<Point>();
+            for (int cell = 0; cell < grid.size(); cell++) {
+                if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+            }
+            long t0 = System.nanoTime();
+            CompressedPathDatabase built = build(grid);
+            built.write(file);
+            long t1 = System.nanoTime();
+            CompressedPathDatabase database = load(file, grid);
+            long t2 = System.nanoTime();
+            int[][] actual = database.getDistanceMatrix(points);
+            long t3 = System.nanoTime();
+            int[][] expected = new AStarPathFinder(grid).getDistanceMatrix(points);
+            long t4 = System.nanoTime();
+            if (!Arrays.deepEquals(expected, actual))
+                throw new IllegalStateException("Different distance matrices");
+            System.out.println((m == 0 ? "Maze: " : "Random map: ") + built.freeCount + " free cells, "
+                    + built.runCount() + " runs (" + file.length() / 1024 + " KB), built in "
+                    + (t1 - t0) / 1000000 + " ms, mapped in " + (t2 - t1) / 1000000 + " ms, matrix in "
+                    + (t3 - t2) / 1000 + " us, floods " + (t4 - t3) / 1000 + " us");
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package jp.co.worksap.global;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The CorridorGraph is a map reduced to a sparse weighted graph of its junctions.
+ * A free cell with exactly two free neighbors can only be passed through, so a chain of such cells
+ * between two other cells is contracted into a single edge whose weight is the length of the chain.
+ * The vertices of the graph are the remaining free cells: junctions, dead ends, the cells of open
+ * floor, and the start, the goal and the checkpoints, which are kept whatever their degree so that
+ * queries between them start and end on vertices. A loop of corridor cells with no vertex at all
+ * gets one of its cells promoted to a vertex.
+ *
+ * Every contracted cell remembers its chain and its distance from the first end of the chain, so a
+ * query from any cell can still enter the graph at both ends of its chain.
+ *
+ * The graph only depends on the map, so like the jump table it can be written to a sidecar file and
+ * read back at the next start, which takes a fraction of the time of contracting the map again.
+ * The file holds a header (magic, version, width, height, checksum of the map, number of vertices,
+ * number of directed edges, number of chains) followed by the arrays of the graph in the order of
+ * their fields, all ints in big endian.
+ */
+public class CorridorGraph {
+    private static final int MAGIC = 0x43524447;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 36;
+    // The ints read from one mapping of the file, which holds at most Integer.MAX_VALUE bytes.
+    private static final int WINDOW_INTS = 1 << 26;
+
+    final GridMap grid;
+
+    // The cell of every vertex, and the vertex of every cell or -1.
+    int[] vertexCells;
+    int[] vertexOf;
+    // The edges of vertex v are edgeTarget[edgeStart[v] .. edgeStart[v + 1]) with their weights.
+    int[] edgeStart, edgeTarget, edgeWeight;
+    // The chain of every contracted cell or -1, and its distance from the first end of the chain.
+    int[] chainOf, chainOffset;
+    // The two end vertices and the length of every chain.
+    int[] chainFirst, chainLast, chainLength;
+
+    /**
+     * Allocate the arrays of a graph to be read from a file.
+     */
+    private CorridorGraph(GridMap grid, int vertexCount, int edgeCount, int chainCount) {
+        this.grid = grid;
+        vertexCells = new int[vertexCount];
+        vertexOf = new int[grid.size()];
+        edgeStart = new int[vertexCount + 1];
+        edgeTarget = new int[edgeCount];
+        edgeWeight = new int[edgeCount];
+        chainOf = new int[grid.size()];
+        chainOffset = new int[grid.size()];
+        chainFirst = new int[chainCount];
+        chainLast = new int[chainCount];
+        chainLength = new int[chainCount];
+    }
+
+    /**
+     * Contract the corridors of a map.
+     *
+     * @param grid the grid map.
+     */
+    public CorridorGraph(GridMap grid) {
+        this.grid = grid;
+        int[] neighbors = grid.neighborOffsets();
+        int size = grid.size();
+        vertexOf = new int[size];
+        chainOf = new int[size];
+        chainOffset = new int[size];
+        Arrays.fill(vertexOf, -1);
+        Arrays.fill(chainOf, -1);
+
+        IntList vertices = new IntList();
+        for (int cell = 0; cell < size; cell++) {
+            if (grid.isFree(cell) && (grid.isMarked(cell) || degree(cell, neighbors) != 2)) {
+                vertexOf[cell] = vertices.size;
+                vertices.add(cell);
+            }
+        }
+
+        IntList from = new IntList(), to = new IntList(), weight = new IntList();
+        IntList first = new IntList(), last = new IntList(), length = new IntList();
+        for (int v = 0; v < vertices.size; v++) {
+            walkChains(v, vertices.values[v], neighbors, from, to, weight, first, last, length);
+        }
+        // Whatever is left uncovered are loops without a vertex.
+        for (int cell = 0; cell < size; cell++) {
+            if (grid.isFree(cell) && vertexOf[cell] < 0 && chainOf[cell] < 0) {
+                vertexOf[cell] = vertices.size;
+                vertices.add(cell);
+                walkChains(vertexOf[cell], cell, neighbors, from, to, weight, first, last, length);
+            }
+        }
+
+        vertexCells = Arrays.copyOf(vertices.values, vertices.size);
+        chainFirst = Arrays.copyOf(first.values, first.size);
+        chainLast = Arrays.copyOf(last.values, last.size);
+        chainLength = Arrays.copyOf(length.values, length.size);
+
+        int n = vertices.size;
+        edgeStart = new int[n + 1];
+        for (int e = 0; e < from.size; e++) edgeStart[from.values[e] + 1]++;
+        for (int v = 0; v < n; v++) edgeStart[v + 1] += edgeStart[v];
+        edgeTarget = new int[from.size];
+        edgeWeight = new int[from.size];
+        int[] fill = Arrays.copyOf(edgeStart, n);
+        for (int e = 0; e < from.size; e++) {
+            int slot = fill[from.values[e]]++;
+            edgeTarget[slot] = to.values[e];
+            edgeWeight[slot] = weight.values[e];
+        }
+    }
+
+    /**
+     * @return the number of free neighbors of a cell.
+     */
+    private int degree(int cell, int[] neighbors) {
+        int degree = 0;
+        for (int offset : neighbors) {
+            if (grid.isFree(cell + offset)) degree++;
+        }
+        return degree;
+    }
+
+    /**
+     * Follow every chain leaving a vertex up to the vertex at its other end. A chain is recorded by
+     * the first of its two ends to walk it, and adds an edge in both directions; two adjacent vertices
+     * add the edge of each direction from their own side.
+     *
+     * @param v         the vertex.
+     * @param cell      the cell of the vertex.
+     * @param neighbors the neighbor offsets of the map.
+     */
+    private void walkChains(int v, int cell, int[] neighbors, IntList from, IntList to, IntList weight,
+                            IntList first, IntList last, IntList length) {
+        for (int offset : neighbors) {
+            int cur = cell + offset;
+            if (!grid.isFree(cur) || chainOf[cur] >= 0)
+                continue;
+            if (vertexOf[cur] >= 0) {
+                from.add(v); to.add(vertexOf[cur]); weight.add(1);
+                continue;
+            }
+            int chain = first.size;
+            int prev = cell, steps = 1;
+            while (vertexOf[cur] < 0) {
+                chainOf[cur] = chain;
+                chainOffset[cur] = steps;
+                // A contracted cell has exactly two free neighbors, go on through the other one.
+                int next = -1;
+                for (int o : neighbors) {
+                    if (cur + o != prev && grid.isFree(cur + o)) next = cur + o;
+                }
+                prev = cur;
+                cur = next;
+                steps++;
+            }
+            int u = vertexOf[cur];
+            first.add(v); last.add(u); length.add(steps);
+            if (u != v) {
+                from.add(v); to.add(u); weight.add(steps);
+                from.add(u); to.add(v); weight.add(steps);
+            }
+        }
+    }
+
+    /**
+     * @return the number of vertices of the graph.
+     */
+    public int vertexCount() {
+        return vertexCells.length;
+    }
+
+    /**
+     * @return the number of directed edges of the graph.
+     */
+    public int edgeCount() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * @return the arrays of the graph, in the order of the file.
+     */
+    private int[][] sections() {
+        return new int[][]{vertexCells, vertexOf, edgeStart, edgeTarget, edgeWeight, chainOf, chainOffset,
+                chainFirst, chainLast, chainLength};
+    }
+
+    /**
+     * Write the graph to a sidecar file.
+     *
+     * @param file the file.
+     * @throws IOException
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(grid.width());
+            out.writeInt(grid.height());
+            out.writeLong(grid.checksum());
+            out.writeInt(vertexCount());
+            out.writeInt(edgeCount());
+            out.writeInt(chainFirst.length);
+            for (int[] section : sections()) {
+                for (int value : section) out.writeInt(value);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read a graph from a sidecar file.
+     *
+     * @param file the file.
+     * @param grid the map the graph should belong to.
+     * @return the graph, or null if the file was written for another map or another version.
+     * @throws IOException
+     */
+    public static CorridorGraph load(File file, GridMap grid) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_BYTES)
+                return null;
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != grid.width() || header.getInt() != grid.height()
+                    || header.getLong() != grid.checksum())
+                return null;
+            int vertexCount = header.getInt();
+            int edgeCount = header.getInt();
+            int chainCount = header.getInt();
+            long ints = 2L * vertexCount + 1 + 2L * edgeCount + 3L * grid.size() + 3L * chainCount;
+            if (channel.size() != HEADER_BYTES + 4 * ints)
+                return null;
+            CorridorGraph graph = new CorridorGraph(grid, vertexCount, edgeCount, chainCount);
+            long position = HEADER_BYTES;
+            for (int[] section : graph.sections()) {
+                for (int done = 0; done < section.length; ) {
+                    int length = Math.min(section.length - done, WINDOW_INTS);
+                    channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * length).asIntBuffer()
+                            .get(section, done, length);
+                    done += length;
+                    position += 4L * length;
+                }
+            }
+            return graph;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Load the graph of a map from its sidecar file, or build it and write the file if the file does
+     * not exist or belongs to another map.
+     *
+     * @param file the sidecar file.
+     * @param grid the grid map.
+     * @return the graph.
+     * @throws IOException
+     */
+    public static CorridorGraph loadOrBuild(File file, GridMap grid) throws IOException {
+        if (file.exists()) {
+            CorridorGraph graph = load(file, grid);
+            if (graph != null)
+                return graph;
+        }
+        CorridorGraph graph = new CorridorGraph(grid);
+        graph.write(file);
+        return graph;
+    }
+}
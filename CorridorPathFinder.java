@@ -0,0 +1,226 @@
+package jp.co.worksap.global;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The CorridorPathFinder runs Dijkstra's algorithm on the CorridorGraph of a map instead of on its cells.
+ * A point which is a vertex of the graph enters the search at distance 0. A point inside a corridor
+ * enters at both ends of its chain, at its distance to each end, and is reached from both ends the
+ * same way. Two points on the same chain may also simply walk along it.
+ *
+ * The distance matrix runs one search per point over the whole graph, which is small next to the map.
+ */
+public class CorridorPathFinder implements PathFinder, DistanceMatrixProvider {
+    private CorridorGraph graph;
+    private GridMap grid;
+    private SearchWorkspace workspace;
+    private OpenList openSet;
+    // The number of vertices expanded by the last query.
+    private int expanded;
+
+    /**
+     * @param graph the contracted map, which may be shared with other finders.
+     */
+    public CorridorPathFinder(CorridorGraph graph) {
+        this.graph = graph;
+        grid = graph.grid;
+        workspace = new SearchWorkspace(graph.vertexCount());
+        openSet = new BinaryHeapOpenList();
+    }
+
+    /**
+     * @return the number of vertices expanded by the last query.
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    @Override
+    public int getShortestPath(Point start, Point goal, int width, int height) {
+        int from = grid.index(start), to = grid.index(goal);
+        int best = sameChain(from, to);
+        best = Math.min(best, search(from, to, best));
+        return best == Integer.MAX_VALUE ? 0 : best;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        int n = points.size();
+        int[][] distances = new int[n][n];
+        for (int i = 0; i < n - 1; i++) {
+            int from = grid.index(points.get(i));
+            search(from, -1, Integer.MAX_VALUE);
+            for (int j = i + 1; j < n; j++) {
+                int to = grid.index(points.get(j));
+                int best = Math.min(sameChain(from, to), reached(to));
+                distances[i][j] = best == Integer.MAX_VALUE ? 0 : best;
+                distances[j][i] = distances[i][j];
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * @return the distance walking along the chain shared by two cells, or Integer.MAX_VALUE.
+     */
+    private int sameChain(int from, int to) {
+        if (from == to)
+            return 0;
+        int chain = graph.chainOf[from];
+        if (chain < 0 || chain != graph.chainOf[to])
+            return Integer.MAX_VALUE;
+        return Math.abs(graph.chainOffset[from] - graph.chainOffset[to]);
+    }
+
+    /**
+     * @return the distance to a cell after a search over the whole graph, or Integer.MAX_VALUE.
+     */
+    private int reached(int cell) {
+        int v = graph.vertexOf[cell];
+        if (v >= 0)
+            return workspace.isVisited(v) ? workspace.gScore[v] : Integer.MAX_VALUE;
+        int chain = graph.chainOf[cell];
+        int offset = graph.chainOffset[cell];
+        int best = Integer.MAX_VALUE;
+        int first = graph.chainFirst[chain], last = graph.chainLast[chain];
+        if (workspace.isVisited(first))
+            best = Math.min(best, workspace.gScore[first] + offset);
+        if (workspace.isVisited(last))
+            best = Math.min(best, workspace.gScore[last] + graph.chainLength[chain] - offset);
+        return best;
+    }
+
+    /**
+     * Put a vertex into the open set if the distance is better than the one known.
+     */
+    private void relax(int v, int g, int parent) {
+        if (workspace.isClosed(v))
+            return;
+        if (!workspace.isVisited(v) || g < workspace.gScore[v]) {
+            workspace.open(v, g, parent);
+            openSet.push(v, g, 0);
+        }
+    }
+
+    /**
+     * Dijkstra's algorithm from a cell.
+     *
+     * @param from the cell to search from.
+     * @param to   the cell at which the search may stop, or -1 to search the whole graph.
+     * @param best the length of a path already known, no longer path is searched for.
+     * @return the length of the shortest path to the target, or Integer.MAX_VALUE if none is shorter than best.
+     */
+    private int search(int from, int to, int best) {
+        expanded = 0;
+        workspace.reset();
+        openSet.clear();
+        int v0 = graph.vertexOf[from];
+        if (v0 >= 0) {
+            relax(v0, 0, -1);
+        } else {
+            int chain = graph.chainOf[from];
+            relax(graph.chainFirst[chain], graph.chainOffset[from], -1);
+            relax(graph.chainLast[chain], graph.chainLength[chain] - graph.chainOffset[from], -1);
+        }
+
+        // The vertices where the target is entered from, with the remaining distance.
+        int targetA = -1, restA = 0, targetB = -1, restB = 0;
+        if (to >= 0 && graph.vertexOf[to] >= 0) {
+            targetA = graph.vertexOf[to];
+        } else if (to >= 0) {
+            int chain = graph.chainOf[to];
+            targetA = graph.chainFirst[chain];
+            restA = graph.chainOffset[to];
+            targetB = graph.chainLast[chain];
+            restB = graph.chainLength[chain] - graph.chainOffset[to];
+        }
+
+        int found = Integer.MAX_VALUE;
+        while (!openSet.isEmpty()) {
+            int v = openSet.pop();
+            if (workspace.isClosed(v))
+                continue;
+            int g = workspace.gScore[v];
+            // Every path still to be found is at least this long.
+            if (to >= 0 && g >= Math.min(best, found))
+                break;
+            workspace.close(v);
+            expanded++;
+            if (v == targetA) found = Math.min(found, g + restA);
+            if (v == targetB) found = Math.min(found, g + restB);
+            for (int e = graph.edgeStart[v]; e < graph.edgeStart[v + 1]; e++) {
+                relax(graph.edgeTarget[e], g + graph.edgeWeight[e], v);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Compare with plain A* on mazes and on maps of the MapGenerator, and time the distance matrix
+     * against the breadth first floods, building the graph once per map, writing it and reading it
+     * back.
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int size = 500;
+        MapGenerator generator = new MapGenerator(size, size);
+        File file = File.createTempFile("corridors", ".bin");
+        file.deleteOnExit();
+        for (int kind = 0; kind < 2; kind++) {
+            long buildTime = 0, loadTime = 0, floodTime = 0, corridorTime = 0, cells = 0, vertices = 0;
+            for (int m = 0; m < 5; m++) {
+                GridMap grid = GridMap.fromRows(kind == 0 ? generator.generateMaze() : generator.generate(), size, size);
+                List<Point> points = new ArrayList<Point>();
+                for (int cell = 0; cell < grid.size(); cell++) {
+                    if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+                    if (grid.isFree(cell)) cells++;
+                }
+                long t0 = System.nanoTime();
+                CorridorGraph built = new CorridorGraph(grid);
+                long t1 = System.nanoTime();
+                built.write(file);
+                long t2 = System.nanoTime();
+                CorridorGraph graph = CorridorGraph.load(file, grid);
+                long t3 = System.nanoTime();
+                int[][] expected = new AStarPathFinder(grid).getDistanceMatrix(points);
+                long t4 = System.nanoTime();
+                int[][] actual = new CorridorPathFinder(graph).getDistanceMatrix(points);
+                long t5 = System.nanoTime();
+                if (!Arrays.deepEquals(expected, actual))
+                    throw new IllegalStateException("Different distance matrices");
+
+                // Queries between free cells which are not vertices.
+                AStarPathFinder astar = new AStarPathFinder(grid);
+                CorridorPathFinder corridor = new CorridorPathFinder(graph);
+                for (int q = 0, a = 0; q < 200; q++) {
+                    a = (a * 31 + 7919) % grid.size();
+                    int b = (a * 17 + 104729) % grid.size();
+                    if (!grid.isFree(a) || !grid.isFree(b))
+                        continue;
+                    Point p = grid.toPoint(a), r = grid.toPoint(b);
+                    if (astar.getShortestPath(p, r, size, size) != corridor.getShortestPath(p, r, size, size))
+                        throw new IllegalStateException("Wrong path length for " + p + " " + r);
+                }
+                buildTime += t1 - t0;
+                loadTime += t3 - t2;
+                floodTime += t4 - t3;
+                corridorTime += t5 - t4;
+                vertices += graph.vertexCount();
+            }
+            System.out.println((kind == 0 ? "Mazes: " : "Random maps: ") + cells + " free cells, " + vertices
+                    + " vertices, graph built in " + buildTime / 1000000 + " ms, read back in "
+                    + loadTime / 1000000 + " ms, floods " + floodTime / 1000000
+                    + " ms, corridor graph " + corridorTime / 1000000 + " ms");
+        }
+    }
+}
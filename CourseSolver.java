@@ -0,0 +1,19 @@
+package jp.co.worksap.global;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The CourseSolver is the common contract of the exact solvers of the course on the distance
+ * matrix, so that Orienteering can pick one by the number of checkpoints.
+ */
+public interface CourseSolver {
+    /**
+     * @param distances      the distance matrix of the checkpoints, then the start, then the goal,
+     *                       all of them connected.
+     * @param numCheckPoints the number of checkpoints.
+     * @return the length of the shortest walk from start to goal through all the checkpoints.
+     */
+    int solve(int[][] distances, int numCheckPoints);
+}
@@ -0,0 +1,21 @@
+package jp.co.worksap.global;
+
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The DistanceMatrixProvider is the common contract of everything which can compute the distance
+ * matrix of Orienteering, i.e. the shortest paths between every two of a list of points.
+ */
+public interface DistanceMatrixProvider {
+    /**
+     * Distance matrix generating function.
+     *
+     * @param points the points to calculate distances between.
+     * @return the symmetric distance matrix, where 0 means that the two points are not connected.
+     */
+    int[][] getDistanceMatrix(List<Point> points);
+}
@@ -0,0 +1,33 @@
+package jp.co.worksap.global;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The DynamicDistanceMatrix is a DistanceMatrixProvider which keeps the matrix of the points of
+ * its last getDistanceMatrix call up to date while cells of the map are blocked and unblocked,
+ * instead of computing it again from scratch.
+ */
+public interface DynamicDistanceMatrix extends DistanceMatrixProvider {
+    /**
+     * Turn a free cell into a wall and update the matrix.
+     *
+     * @param cell the Point of the cell, which must not be a checkpoint, the start or the goal.
+     * @return the number of entries of the matrix which changed.
+     */
+    int blockCell(Point cell);
+
+    /**
+     * Turn a wall into an empty cell and update the matrix.
+     *
+     * @param cell the Point of the cell.
+     * @return the number of entries of the matrix which changed.
+     */
+    int unblockCell(Point cell);
+
+    /**
+     * @return the current distance matrix, updated in place by the edits.
+     */
+    int[][] getDistanceMatrix();
+}
@@ -0,0 +1,30 @@
+package jp.co.worksap.global;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The EuclideanHeuristic estimates the cost by the euclidean distance to the target, rounded down.
+ */
+public class EuclideanHeuristic implements Heuristic {
+    private int stride;
+    private int targetRow, targetCol;
+
+    public EuclideanHeuristic(GridMap grid) {
+        stride = grid.stride();
+    }
+
+    @Override
+    public void setTarget(int target) {
+        targetRow = target / stride;
+        targetCol = target % stride;
+    }
+
+    @Override
+    public int estimate(int cell) {
+        int d1 = Math.abs(cell / stride - targetRow);
+        int d2 = Math.abs(cell % stride - targetCol);
+        return (int) Math.sqrt(d1 * d1 + d2 * d2 + 0.0);
+    }
+}
@@ -0,0 +1,90 @@
+package jp.co.worksap.global;
+
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The GridComponents labels the connected components of the free cells of a map.
+ * Two cells are connected if and only if they have the same label, so an unreachable checkpoint
+ * is found with one linear scan of the map instead of searches which exhaust the whole region
+ * reachable from the start before giving up.
+ * The labels are computed by one scan over the cells, starting a breadth first flood from every
+ * free cell which is not labelled yet.
+ */
+public class GridComponents {
+    private GridMap grid;
+    // The label of every cell, 0 for walls, 1 to count for the components.
+    private int[] labels;
+    private int count;
+
+    /**
+     * Label the components of a map.
+     *
+     * @param grid the grid map.
+     */
+    public GridComponents(GridMap grid) {
+        this.grid = grid;
+        labels = new int[grid.size()];
+        int[] queue = new int[grid.size()];
+        int[] neighbors = grid.neighborOffsets();
+        count = 0;
+        for (int cell = 0; cell < grid.size(); cell++) {
+            if (!grid.isFree(cell) || labels[cell] != 0)
+                continue;
+            int label = ++count;
+            int head = 0, tail = 0;
+            queue[tail++] = cell;
+            labels[cell] = label;
+            while (head < tail) {
+                int cur = queue[head++];
+                for (int offset : neighbors) {
+                    int next = cur + offset;
+                    if (grid.isFree(next) && labels[next] == 0) {
+                        labels[next] = label;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of components.
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * @param cell the index of the cell.
+     * @return the label of the component of the cell, 0 for walls.
+     */
+    public int componentOf(int cell) {
+        return labels[cell];
+    }
+
+    /**
+     * @param a a Point on the map.
+     * @param b another Point on the map.
+     * @return whether there is a path between the two points.
+     */
+    public boolean isConnected(Point a, Point b) {
+        int label = labels[grid.index(a)];
+        return label != 0 && label == labels[grid.index(b)];
+    }
+
+    /**
+     * @param points the points on the map.
+     * @return whether there is a path between every two of the points.
+     */
+    public boolean isConnected(List<Point> points) {
+        for (Point point : points) {
+            if (!isConnected(points.get(0), point))
+                return false;
+        }
+        return true;
+    }
+}
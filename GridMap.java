@@ -0,0 +1,269 @@
+package jp.co.worksap.global;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The GridMap is the compact representation of the grid map used by the path finders.
+ * Instead of one object per cell, every cell is one byte in a flat array indexed by
+ * row * stride + col. The map is surrounded by a border of walls, so that every cell on the map
+ * has four neighbors in the array and walking to a neighbor never needs a bounds check:
+ * the neighbors of cell i are simply i - stride, i + stride, i - 1 and i + 1.
+ * Because of the border, stride is width + 2 and the cell at (row, col) is stored at
+ * (row + 1) * stride + (col + 1). Always go through index() instead of computing it by hand.
+ *
+ * How the cells are stored is left to the subclasses: ArrayGridMap keeps one byte per cell on the
+ * heap, MappedGridMap keeps 2 bits per cell in a memory mapped file, for maps larger than the heap.
+ */
+public abstract class GridMap {
+    // A wall, including the border around the map.
+    static final byte WALL = 0;
+    // An empty cell.
+    static final byte FLOOR = 1;
+    // A checkpoint, the start or the goal. They can be walked on like the floor.
+    static final byte MARK = 2;
+
+    private final int width, height, stride, size;
+
+    GridMap(int width, int height) {
+        if ((long) (height + 2) * (width + 2) > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The map is too large: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.stride = width + 2;
+        this.size = (height + 2) * stride;
+    }
+
+    /**
+     * Create an empty map on the heap, all walls, to be filled with setRow.
+     *
+     * @param width  the width of the map.
+     * @param height the height of the map.
+     * @return the map.
+     */
+    public static GridMap allocate(int width, int height) {
+        return new ArrayGridMap(width, height);
+    }
+
+    /**
+     * Create an empty map in a memory mapped file, all walls, to be filled with setRow.
+     *
+     * @param width  the width of the map.
+     * @param height the height of the map.
+     * @param file   the file holding the cells, which is overwritten.
+     * @return the map.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    public static GridMap map(int width, int height, File file) throws IOException {
+        return new MappedGridMap(width, height, file);
+    }
+
+    /**
+     * Build a GridMap from raw input.
+     *
+     * @param g      the String array containing the grid map.
+     * @param width  the width of the map.
+     * @param height the height of the map.
+     * @return the map.
+     */
+    public static GridMap fromRows(String[] g, int width, int height) {
+        GridMap grid = allocate(width, height);
+        for (int i = 0; i < height; i++) {
+            grid.setRow(i, g[i]);
+        }
+        return grid;
+    }
+
+    /**
+     * Fill one row of the map from raw input, so that the rows can be read one at a time.
+     *
+     * @param row  the index of the row.
+     * @param line the characters of the row.
+     */
+    public void setRow(int row, String line) {
+        for (int j = 0; j < width; j++) {
+            set(index(row, j), encode(line.charAt(j)));
+        }
+    }
+
+    /**
+     * @param cell the index of the cell.
+     * @return the byte stored for the cell, WALL, FLOOR or MARK.
+     */
+    abstract byte get(int cell);
+
+    /**
+     * @param cell  the index of the cell.
+     * @param value the byte to store for the cell, WALL, FLOOR or MARK.
+     */
+    abstract void set(int cell, byte value);
+
+    /**
+     * @param property the character of the cell in the raw input.
+     * @return the byte stored for the cell.
+     */
+    static byte encode(char property) {
+        if (property == '#') return WALL;
+        if (property == '@' || property == 'S' || property == 'G') return MARK;
+        return FLOOR;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * @return the distance between the indices of two vertically adjacent cells.
+     */
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * @return the number of cells including the border, i.e. the size of arrays indexed by cell.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A checksum of the size and the content of the map, used to check that data precomputed
+     * for a map and stored in a file still belongs to it.
+     *
+     * @return the checksum.
+     */
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[1 << 16];
+        for (int start = 0; start < size; start += chunk.length) {
+            int length = Math.min(chunk.length, size - start);
+            for (int i = 0; i < length; i++) chunk[i] = get(start + i);
+            crc.update(chunk, 0, length);
+        }
+        return ((long) width * 31 + height) << 32 ^ crc.getValue();
+    }
+
+    /**
+     * @return the offsets from a cell to its up, down, left and right neighbors.
+     */
+    public int[] neighborOffsets() {
+        return new int[]{-stride, stride, -1, 1};
+    }
+
+    public int index(int row, int col) {
+        return (row + 1) * stride + col + 1;
+    }
+
+    public int index(Point point) {
+        return index(point.row, point.col);
+    }
+
+    public int row(int cell) {
+        return cell / stride - 1;
+    }
+
+    public int col(int cell) {
+        return cell % stride - 1;
+    }
+
+    public Point toPoint(int cell) {
+        return new Point(row(cell), col(cell));
+    }
+
+    /**
+     * @param cell the index of the cell.
+     * @return true if the cell could be walked on. Always false for the border.
+     */
+    public boolean isFree(int cell) {
+        return get(cell) != WALL;
+    }
+
+    /**
+     * @param cell the index of the cell.
+     * @return true if the cell is a checkpoint, the start or the goal.
+     */
+    public boolean isMarked(int cell) {
+        return get(cell) == MARK;
+    }
+
+    /**
+     * Turn a free cell into a wall, for maps which change while they are in use.
+     *
+     * @param cell the index of the cell.
+     * @throws IllegalArgumentException if the cell is outside the map or on the border around it, or
+     *                                  is a checkpoint, the start or the goal.
+     */
+    public void block(int cell) {
+        checkOnMap(cell);
+        if (get(cell) == MARK)
+            throw new IllegalArgumentException("Cannot block a checkpoint at " + toPoint(cell));
+        set(cell, WALL);
+    }
+
+    /**
+     * Turn a wall into an empty cell, for maps which change while they are in use.
+     *
+     * @param cell the index of the cell.
+     * @throws IllegalArgumentException if the cell is outside the map or on the border around it.
+     */
+    public void unblock(int cell) {
+        checkOnMap(cell);
+        if (get(cell) == WALL)
+            set(cell, FLOOR);
+    }
+
+    /**
+     * @param cell the index of a cell to edit.
+     * @throws IllegalArgumentException if the cell is outside the map or on the border around it.
+     */
+    private void checkOnMap(int cell) {
+        if (cell < 0 || cell >= size || row(cell) < 0 || row(cell) >= height
+                || col(cell) < 0 || col(cell) >= width)
+            throw new IllegalArgumentException("Cannot edit the cell " + cell + ", which is not on the map");
+    }
+
+    /**
+     * Wall up the dead end pockets of the map.
+     * A free cell with at most one free neighbor is the end of a dead end: a path entering it can
+     * only come back the way it came, so no shortest path between two other cells passes through it.
+     * Such cells are turned into walls, which may make their neighbor a dead end in turn, until only
+     * cells on loops, cells between them and the marked cells are left. Marked cells are never
+     * removed, so the distances between marked cells stay exactly the same, but unmarked cells
+     * inside the pockets cannot be used as the ends of a query any more.
+     *
+     * @return the number of cells removed.
+     */
+    public int pruneDeadEnds() {
+        int[] neighbors = neighborOffsets();
+        int[] degree = new int[size];
+        int[] queue = new int[size];
+        int tail = 0;
+        for (int cell = 0; cell < size; cell++) {
+            if (get(cell) != FLOOR)
+                continue;
+            for (int offset : neighbors) {
+                if (isFree(cell + offset)) degree[cell]++;
+            }
+            if (degree[cell] <= 1) queue[tail++] = cell;
+        }
+        // Every removed cell is queued exactly once: when its degree drops to 1, or at the start.
+        for (int head = 0; head < tail; head++) {
+            int cell = queue[head];
+            set(cell, WALL);
+            for (int offset : neighbors) {
+                int next = cell + offset;
+                if (get(next) == FLOOR && --degree[next] == 1) queue[tail++] = next;
+            }
+        }
+        return tail;
+    }
+}
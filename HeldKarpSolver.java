@@ -0,0 +1,157 @@
+package jp.co.worksap.global;
+
+import java.util.Random;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The HeldKarpSolver runs the dynamic programming of Orienteering over the subsets of checkpoints,
+ * the Held-Karp algorithm, on flat arrays.
+ *
+ * The value of a state is the length of the shortest walk from the start through the checkpoints
+ * of a selection, standing on checkpoint i of it. A jagged int[1 << n][n] table spends an object
+ * header and a pointer per selection, 262144 of them at n = 18, and every read goes through the
+ * pointer first. Here the table is one int[n << n], in one of two layouts:
+ * - mask major, the state (selection, i) at selection * n + i, so the candidates j read for one
+ *   state are the n contiguous ints of the subset.
+ * - node major, the state at i << n | selection, so each checkpoint has its own contiguous block
+ *   and the states of one selection are 1 << n ints apart.
+ * The distances between checkpoints are flattened too, with the distance from j to i at i * n + j
+ * so that the candidates of i are contiguous as well.
+ *
+ * Both loops over checkpoints only visit the set bits of their mask, so a state reads exactly its
+ * predecessors, the states of its subset, with no test per checkpoint. That halves the work on
+ * average and leaves the inner loop without unpredictable branches.
+ */
+public class HeldKarpSolver implements CourseSolver {
+    private static final int INFINITY = 1 << 28;
+
+    private final boolean nodeMajor;
+
+    /**
+     * @param nodeMajor true for the node major layout of the table, false for mask major.
+     */
+    public HeldKarpSolver(boolean nodeMajor) {
+        this.nodeMajor = nodeMajor;
+    }
+
+    @Override
+    public int solve(int[][] distances, int numCheckPoints) {
+        int n = numCheckPoints;
+        int startIndex = n;
+        int goalIndex = n + 1;
+        if (n == 0) {
+            return distances[startIndex][goalIndex];
+        }
+        if ((long) n << n > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Too many checkpoints for the table: " + n);
+
+        int[] dist = new int[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                dist[i * n + j] = distances[j][i];
+            }
+        }
+        // Only the states standing on a checkpoint of their selection are ever written or read,
+        // and they are all written before being read, so the table needs no initial value.
+        int[] paths = new int[n << n];
+        int maskStride = nodeMajor ? 1 : n;
+        int nodeStride = nodeMajor ? 1 << n : 1;
+        int numSelections = 1 << n;
+
+        // A single checkpoint is reached straight from the start.
+        for (int i = 0; i < n; i++) {
+            paths[(1 << i) * maskStride + i * nodeStride] = distances[startIndex][i];
+        }
+        for (int selection = 3; selection < numSelections; selection++) {
+            if ((selection & (selection - 1)) == 0) continue;
+            // Only the set bits are visited: the lowest one is numberOfTrailingZeros, and clearing
+            // it with bits & (bits - 1) moves on to the next.
+            for (int bits = selection; bits != 0; bits &= bits - 1) {
+                int i = Integer.numberOfTrailingZeros(bits);
+                // The checkpoints passed before standing on i.
+                int subset = selection ^ (1 << i);
+                // paths[selection][i] = min(paths[subset][j] + dist[j][i]) over the j of the subset.
+                int best = INFINITY;
+                int base = subset * maskStride;
+                int row = i * n;
+                for (int rest = subset; rest != 0; rest &= rest - 1) {
+                    int j = Integer.numberOfTrailingZeros(rest);
+                    int length = paths[base + j * nodeStride] + dist[row + j];
+                    if (length < best) best = length;
+                }
+                paths[selection * maskStride + i * nodeStride] = best;
+            }
+        }
+
+        int answer = 1 << 30;
+        int full = (numSelections - 1) * maskStride;
+        for (int i = 0; i < n; i++) {
+            answer = Math.min(answer, paths[full + i * nodeStride] + distances[i][goalIndex]);
+        }
+        return answer;
+    }
+
+    /**
+     * @return a symmetric matrix of random distances between n checkpoints, the start and the goal.
+     */
+    static int[][] randomDistances(int n, Random rand) {
+        int[][] distances = new int[n + 2][n + 2];
+        for (int i = 0; i < n + 2; i++) {
+            for (int j = i + 1; j < n + 2; j++) {
+                distances[i][j] = distances[j][i] = 1 + rand.nextInt(1000);
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * @return the bytes of the heap in use after a garbage collection.
+     */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int k = 0; k < 3; k++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compare the two layouts on random matrices of 18 to 22 checkpoints, and the heap taken by the
+     * flat table next to the jagged one.
+     *
+     * @param args the largest number of checkpoints, 22 by default.
+     */
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 22;
+        Random rand = new Random(18);
+        for (int n = 18; n <= largest; n++) {
+            long before = usedHeap();
+            int[][] jagged = new int[1 << n][n];
+            long jaggedBytes = usedHeap() - before;
+            jagged = null;
+            before = usedHeap();
+            int[] flat = new int[n << n];
+            long flatBytes = usedHeap() - before;
+            flat = null;
+
+            int[][] distances = randomDistances(n, rand);
+            StringBuilder line = new StringBuilder("n = " + n + ": jagged " + (jaggedBytes >> 20) + " MB, flat "
+                    + (flatBytes >> 20) + " MB");
+            int expected = -1;
+            for (int layout = 0; layout < 2; layout++) {
+                HeldKarpSolver solver = new HeldKarpSolver(layout == 1);
+                long t0 = System.nanoTime();
+                int answer = solver.solve(distances, n);
+                long t1 = System.nanoTime();
+                if (expected >= 0 && answer != expected)
+                    throw new IllegalStateException("Different answers of the layouts");
+                expected = answer;
+                double states = (double) n * (1L << n);
+                line.append(layout == 1 ? ", node major " : ", mask major ").append((t1 - t0) / 1000000)
+                        .append(" ms (").append(Math.round(states * 1000 / (t1 - t0))).append(" M states/s)");
+            }
+            System.out.println(line);
+        }
+    }
+}
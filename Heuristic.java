@@ -0,0 +1,25 @@
+package jp.co.worksap.global;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The Heuristic estimates the cost from a cell to the target of an A* query.
+ * To keep the paths shortest the estimate must never exceed the real cost, and to let every cell be
+ * expanded only once it should be consistent: the estimates of two neighbors differ by at most 1.
+ */
+public interface Heuristic {
+    /**
+     * Set the target of the following estimates. Called once at the start of every query.
+     *
+     * @param target the index of the target cell.
+     */
+    void setTarget(int target);
+
+    /**
+     * @param cell the index of the cell.
+     * @return the estimated cost from the cell to the target.
+     */
+    int estimate(int cell);
+}
@@ -0,0 +1,273 @@
+package jp.co.worksap.global;
+
+import java.util.Arrays;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The HierarchicalGraph is the abstraction of a map used by HPA* (Hierarchical Path-Finding A*).
+ * The map is partitioned into square clusters. Where two adjacent clusters share free border cells,
+ * transitions are placed: a pair of facing border cells, one on each side, joined by an inter edge
+ * of cost 1. The cells of the transitions are the nodes of the abstract graph. Inside every cluster,
+ * intra edges join its nodes with the length of the shortest path which stays within the cluster.
+ * A query then only searches the clusters of its two ends and the small abstract graph.
+ *
+ * There are two ways to place transitions:
+ * - approximate: as in the original HPA*, one transition in the middle of every run of facing free
+ *   cells, or one at each end of a long run. The graph is small, but the distances are upper bounds.
+ * - exact: a transition for every pair of facing free cells. Every shortest path crosses between
+ *   clusters through transitions and runs inside one cluster between two crossings, so it is also a
+ *   path of the abstract graph and the distances are exact. The graph is larger and slower to build.
+ *
+ * The graph only depends on the map, so it is built once and shared by all the queries on the map,
+ * whatever the checkpoints are.
+ */
+public class HierarchicalGraph {
+    // Runs of facing free cells at least this long get a transition at each end.
+    private static final int LONG_ENTRANCE = 6;
+
+    final GridMap grid;
+    final int clusterSize;
+    final boolean exact;
+    // Number of clusters per row and per column of clusters.
+    final int clustersPerRow, clustersPerColumn;
+
+    // The cell of every node, sorted, so the node of a cell is found by binary search.
+    int[] nodeCells;
+    // The edges of node v are edgeTarget[edgeStart[v] .. edgeStart[v + 1]) with their weights.
+    int[] edgeStart, edgeTarget, edgeWeight;
+    // The nodes of cluster c are clusterNodes[clusterStart[c] .. clusterStart[c + 1]).
+    int[] clusterStart, clusterNodes;
+
+    /**
+     * Build the abstraction of a map.
+     *
+     * @param grid        the grid map.
+     * @param clusterSize the width and height of the clusters, at least 1. A cluster is never larger
+     *                    than the map.
+     * @param exact       true to place a transition on every pair of facing free border cells.
+     * @throws IllegalArgumentException if the size of the clusters is less than 1.
+     */
+    public HierarchicalGraph(GridMap grid, int clusterSize, boolean exact) {
+        if (clusterSize < 1)
+            throw new IllegalArgumentException("The size of the clusters must be at least 1: " + clusterSize);
+        // The workspaces hold a whole cluster, so a larger one would only waste them.
+        clusterSize = Math.min(clusterSize, Math.max(grid.width(), grid.height()));
+        this.grid = grid;
+        this.clusterSize = clusterSize;
+        this.exact = exact;
+        clustersPerRow = (grid.width() + clusterSize - 1) / clusterSize;
+        clustersPerColumn = (grid.height() + clusterSize - 1) / clusterSize;
+
+        // Transitions between horizontally and vertically adjacent clusters, as pairs of cells.
+        IntList transitions = new IntList();
+        for (int row = 0; row < grid.height(); row += clusterSize) {
+            for (int col = clusterSize; col < grid.width(); col += clusterSize) {
+                // Down a vertical border, facing the cell on the right.
+                addEntrances(transitions, grid.index(row, col - 1), grid.stride(),
+                        Math.min(clusterSize, grid.height() - row), 1);
+            }
+        }
+        for (int row = clusterSize; row < grid.height(); row += clusterSize) {
+            for (int col = 0; col < grid.width(); col += clusterSize) {
+                // Along a horizontal border, facing the cell below.
+                addEntrances(transitions, grid.index(row - 1, col), 1,
+                        Math.min(clusterSize, grid.width() - col), grid.stride());
+            }
+        }
+
+        // Nodes are the distinct cells of the transitions.
+        int[] cells = Arrays.copyOf(transitions.values, transitions.size);
+        Arrays.sort(cells);
+        int n = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (i == 0 || cells[i] != cells[i - 1]) cells[n++] = cells[i];
+        }
+        nodeCells = Arrays.copyOf(cells, n);
+
+        // Group the nodes by cluster.
+        int numClusters = clustersPerRow * clustersPerColumn;
+        clusterStart = new int[numClusters + 1];
+        for (int v = 0; v < n; v++) clusterStart[clusterOf(nodeCells[v]) + 1]++;
+        for (int c = 0; c < numClusters; c++) clusterStart[c + 1] += clusterStart[c];
+        clusterNodes = new int[n];
+        int[] fill = Arrays.copyOf(clusterStart, numClusters);
+        for (int v = 0; v < n; v++) clusterNodes[fill[clusterOf(nodeCells[v])]++] = v;
+
+        // Inter edges, then intra edges from one cluster restricted search per node.
+        IntList from = new IntList(), to = new IntList(), weight = new IntList();
+        for (int i = 0; i < transitions.size; i += 2) {
+            int a = nodeOf(transitions.values[i]), b = nodeOf(transitions.values[i + 1]);
+            from.add(a); to.add(b); weight.add(1);
+            from.add(b); to.add(a); weight.add(1);
+        }
+        SearchWorkspace workspace = newClusterWorkspace();
+        for (int c = 0; c < numClusters; c++) {
+            for (int i = clusterStart[c]; i < clusterStart[c + 1]; i++) {
+                int v = clusterNodes[i];
+                searchCluster(nodeCells[v], c, workspace, -1);
+                for (int j = clusterStart[c]; j < clusterStart[c + 1]; j++) {
+                    int u = clusterNodes[j];
+                    int local = localOf(nodeCells[u]);
+                    if (u != v && workspace.isVisited(local)) {
+                        from.add(v); to.add(u); weight.add(workspace.gScore[local]);
+                    }
+                }
+            }
+        }
+
+        edgeStart = new int[n + 1];
+        for (int e = 0; e < from.size; e++) edgeStart[from.values[e] + 1]++;
+        for (int v = 0; v < n; v++) edgeStart[v + 1] += edgeStart[v];
+        edgeTarget = new int[from.size];
+        edgeWeight = new int[from.size];
+        fill = Arrays.copyOf(edgeStart, n);
+        for (int e = 0; e < from.size; e++) {
+            int slot = fill[from.values[e]]++;
+            edgeTarget[slot] = to.values[e];
+            edgeWeight[slot] = weight.values[e];
+        }
+    }
+
+    /**
+     * Place the transitions along one cluster border.
+     *
+     * @param transitions receives the pairs of cells.
+     * @param first       the first border cell on the near side.
+     * @param along       the index offset along the border.
+     * @param length      the number of cells along the border.
+     * @param across      the index offset from a near side cell to the facing cell.
+     */
+    private void addEntrances(IntList transitions, int first, int along, int length, int across) {
+        int runStart = -1;
+        for (int i = 0; i <= length; i++) {
+            int cell = first + i * along;
+            boolean open = i < length && grid.isFree(cell) && grid.isFree(cell + across);
+            if (open && exact) {
+                transitions.add(cell);
+                transitions.add(cell + across);
+            } else if (open && runStart < 0) {
+                runStart = i;
+            } else if (!open && runStart >= 0) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 >= LONG_ENTRANCE) {
+                    transitions.add(first + runStart * along);
+                    transitions.add(first + runStart * along + across);
+                    transitions.add(first + runEnd * along);
+                    transitions.add(first + runEnd * along + across);
+                } else {
+                    int middle = first + (runStart + runEnd) / 2 * along;
+                    transitions.add(middle);
+                    transitions.add(middle + across);
+                }
+                runStart = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the number of nodes of the abstract graph.
+     */
+    public int nodeCount() {
+        return nodeCells.length;
+    }
+
+    /**
+     * @return the number of directed edges of the abstract graph.
+     */
+    public int edgeCount() {
+        return edgeTarget.length;
+    }
+
+    /**
+     * @param cell the index of a cell.
+     * @return the node of the cell, or -1 if the cell is not a node.
+     */
+    int nodeOf(int cell) {
+        int v = Arrays.binarySearch(nodeCells, cell);
+        return v >= 0 ? v : -1;
+    }
+
+    /**
+     * @param cell the index of a cell on the map.
+     * @return the cluster containing the cell.
+     */
+    int clusterOf(int cell) {
+        return grid.row(cell) / clusterSize * clustersPerRow + grid.col(cell) / clusterSize;
+    }
+
+    /**
+     * @return a workspace for searchCluster, with one entry per cell of a cluster.
+     */
+    SearchWorkspace newClusterWorkspace() {
+        return new SearchWorkspace(clusterSize * clusterSize);
+    }
+
+    /**
+     * @param cell the index of a cell on the map.
+     * @return the offset of the cell in its cluster, row by row, which indexes a cluster workspace.
+     */
+    int localOf(int cell) {
+        return grid.row(cell) % clusterSize * clusterSize + grid.col(cell) % clusterSize;
+    }
+
+    /**
+     * @param local   the offset of a cell in its cluster.
+     * @param cluster the cluster.
+     * @return the index of the cell on the map.
+     */
+    int cellOf(int local, int cluster) {
+        return grid.index(cluster / clustersPerRow * clusterSize + local / clusterSize,
+                cluster % clustersPerRow * clusterSize + local % clusterSize);
+    }
+
+    /**
+     * Breadth first search from a cell which never leaves the cluster. The workspace only holds the
+     * cells of one cluster, so it is indexed by localOf, and the parents are offsets in the cluster.
+     *
+     * @param source    the cell to search from.
+     * @param cluster   the cluster of the cell.
+     * @param workspace a workspace of newClusterWorkspace, receives the distances and parents of the
+     *                  cells of the cluster reached.
+     * @param target    a cell at which the search may stop, or -1 to search the whole cluster.
+     */
+    void searchCluster(int source, int cluster, SearchWorkspace workspace, int target) {
+        // The cell of offset 0. In the last clusters, the offsets past the edge of the map stop at
+        // the walls around it.
+        int origin = cellOf(0, cluster);
+        int stride = grid.stride();
+        int[] queue = workspace.queue;
+        int first = localOf(source), last = target < 0 ? -1 : localOf(target);
+        workspace.reset();
+        workspace.open(first, 0, -1);
+        int head = 0, tail = 0;
+        queue[tail++] = first;
+        while (head < tail) {
+            int cur = queue[head++];
+            if (cur == last)
+                return;
+            int row = cur / clusterSize, col = cur - row * clusterSize;
+            int cell = origin + row * stride + col;
+            int g = workspace.gScore[cur] + 1;
+            // Up, down, left and right, as in neighborOffsets.
+            if (row > 0 && grid.isFree(cell - stride) && !workspace.isVisited(cur - clusterSize)) {
+                workspace.open(cur - clusterSize, g, cur);
+                queue[tail++] = cur - clusterSize;
+            }
+            if (row < clusterSize - 1 && grid.isFree(cell + stride) && !workspace.isVisited(cur + clusterSize)) {
+                workspace.open(cur + clusterSize, g, cur);
+                queue[tail++] = cur + clusterSize;
+            }
+            if (col > 0 && grid.isFree(cell - 1) && !workspace.isVisited(cur - 1)) {
+                workspace.open(cur - 1, g, cur);
+                queue[tail++] = cur - 1;
+            }
+            if (col < clusterSize - 1 && grid.isFree(cell + 1) && !workspace.isVisited(cur + 1)) {
+                workspace.open(cur + 1, g, cur);
+                queue[tail++] = cur + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The HierarchicalPathFinder answers queries with HPA* on a HierarchicalGraph.
+ * A query inserts its two ends into the abstract graph with one breadth first search restricted to
+ * the cluster of each end, which connects them to the nodes of their clusters. Then A* runs on the
+ * abstract graph, whose edges already summarize whole clusters, and the length found is the answer.
+ * Every edge is at least as long as the Manhattan distance between its cells, so the Manhattan
+ * distance to the goal is a consistent heuristic there too. If both ends are in the same cluster,
+ * the path inside the cluster is a candidate as well. getPath refines the abstract path into the
+ * cells on the map.
+ *
+ * The searches inside clusters only need the cells of one cluster, so their workspaces are cluster
+ * sized and the finder keeps no array per cell of the map.
+ *
+ * With an exact graph the lengths are exactly those of A*, with an approximate one they may be
+ * a little longer.
+ */
+public class HierarchicalPathFinder implements PathFinder {
+    private HierarchicalGraph graph;
+    private GridMap grid;
+    // Searches inside the clusters of the start and the goal, and for refining intra edges.
+    private SearchWorkspace startSpace, goalSpace, refineSpace;
+    // A* state on the abstract graph, indexed by node.
+    private SearchWorkspace abstractSpace;
+    private OpenList openSet;
+    // The last node before the goal on the best path of the last query, or -1 if it stays in one cluster.
+    private int lastNode;
+    // The number of abstract nodes expanded by the last query.
+    private int expanded;
+
+    /**
+     * @param graph the abstraction of the map, which may be shared with other finders.
+     */
+    public HierarchicalPathFinder(HierarchicalGraph graph) {
+        this.graph = graph;
+        grid = graph.grid;
+        startSpace = graph.newClusterWorkspace();
+        goalSpace = graph.newClusterWorkspace();
+        abstractSpace = new SearchWorkspace(graph.nodeCount());
+        openSet = new BinaryHeapOpenList();
+    }
+
+    /**
+     * @return the number of abstract nodes expanded by the last query.
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    @Override
+    public int getShortestPath(Point start, Point goal, int width, int height) {
+        int best = search(grid.index(start), grid.index(goal));
+        return best == Integer.MAX_VALUE ? 0 : best;
+    }
+
+    /**
+     * Find a shortest path and refine it into cells.
+     *
+     * @param start the Point of start.
+     * @param goal  the Point of the goal.
+     * @return the points of the path from start to goal, both included, or null if no path exists.
+     */
+    public List<Point> getPath(Point start, Point goal) {
+        int from = grid.index(start), to = grid.index(goal);
+        if (search(from, to) == Integer.MAX_VALUE)
+            return null;
+        List<Point> path = new ArrayList<Point>();
+        if (lastNode < 0) {
+            // The path stays inside the cluster of the start.
+            appendReversed(path, startSpace, to);
+            return path;
+        }
+        int goalCluster = graph.clusterOf(to);
+
+        List<Integer> nodes = new ArrayList<Integer>();
+        for (int v = lastNode; v >= 0; v = abstractSpace.parent[v]) {
+            nodes.add(v);
+        }
+        Collections.reverse(nodes);
+        appendReversed(path, startSpace, graph.nodeCells[nodes.get(0)]);
+        for (int i = 1; i < nodes.size(); i++) {
+            int a = graph.nodeCells[nodes.get(i - 1)], b = graph.nodeCells[nodes.get(i)];
+            int cluster = graph.clusterOf(a);
+            if (cluster != graph.clusterOf(b)) {
+                // An inter edge between two facing cells.
+                path.add(grid.toPoint(b));
+                continue;
+            }
+            if (refineSpace == null) {
+                refineSpace = graph.newClusterWorkspace();
+            }
+            graph.searchCluster(a, cluster, refineSpace, b);
+            List<Point> segment = new ArrayList<Point>();
+            appendReversed(segment, refineSpace, b);
+            path.addAll(segment.subList(1, segment.size()));
+        }
+        // The search from the goal leads from the last node to the goal.
+        for (int local = goalSpace.parent[graph.localOf(graph.nodeCells[lastNode])]; local >= 0;
+             local = goalSpace.parent[local]) {
+            path.add(grid.toPoint(graph.cellOf(local, goalCluster)));
+        }
+        return path;
+    }
+
+    /**
+     * Append the path from the source of a cluster search to a cell of the same cluster.
+     */
+    private void appendReversed(List<Point> path, SearchWorkspace workspace, int cell) {
+        int cluster = graph.clusterOf(cell);
+        List<Point> reversed = new ArrayList<Point>();
+        for (int local = graph.localOf(cell); local >= 0; local = workspace.parent[local]) {
+            reversed.add(grid.toPoint(graph.cellOf(local, cluster)));
+        }
+        Collections.reverse(reversed);
+        path.addAll(reversed);
+    }
+
+    /**
+     * Search the abstract graph with the two ends inserted.
+     *
+     * @param from the cell of the start.
+     * @param to   the cell of the goal.
+     * @return the length of the shortest path, or Integer.MAX_VALUE if no path exists.
+     */
+    private int search(int from, int to) {
+        expanded = 0;
+        lastNode = -1;
+        int startCluster = graph.clusterOf(from), goalCluster = graph.clusterOf(to);
+        int best = Integer.MAX_VALUE;
+
+        graph.searchCluster(from, startCluster, startSpace, -1);
+        int local = graph.localOf(to);
+        if (startCluster == goalCluster && startSpace.isVisited(local)) {
+            best = startSpace.gScore[local];
+        }
+        graph.searchCluster(to, goalCluster, goalSpace, -1);
+        int goalRow = grid.row(to), goalCol = grid.col(to);
+
+        abstractSpace.reset();
+        openSet.clear();
+        for (int i = graph.clusterStart[startCluster]; i < graph.clusterStart[startCluster + 1]; i++) {
+            int v = graph.clusterNodes[i];
+            local = graph.localOf(graph.nodeCells[v]);
+            if (startSpace.isVisited(local)) {
+                int g = startSpace.gScore[local];
+                int h = manhattan(graph.nodeCells[v], goalRow, goalCol);
+                abstractSpace.open(v, g, -1);
+                openSet.push(v, g + h, h);
+            }
+        }
+        // The nodes of the goal cluster which reach the goal inside it.
+        for (int i = graph.clusterStart[goalCluster]; i < graph.clusterStart[goalCluster + 1]; i++) {
+            int v = graph.clusterNodes[i];
+            if (goalSpace.isVisited(graph.localOf(graph.nodeCells[v]))) abstractSpace.markTarget(v);
+        }
+
+        while (!openSet.isEmpty()) {
+            int v = openSet.pop();
+            if (abstractSpace.isClosed(v))
+                continue;
+            int g = abstractSpace.gScore[v];
+            int cell = graph.nodeCells[v];
+            // Every path still to be found is at least as long as the f_score of the best node.
+            if (g + manhattan(cell, goalRow, goalCol) >= best)
+                break;
+            abstractSpace.close(v);
+            expanded++;
+            if (abstractSpace.isTarget(v)) {
+                int length = g + goalSpace.gScore[graph.localOf(cell)];
+                if (length < best) {
+                    best = length;
+                    lastNode = v;
+                }
+            }
+            for (int e = graph.edgeStart[v]; e < graph.edgeStart[v + 1]; e++) {
+                int u = graph.edgeTarget[e];
+                int g_score = g + graph.edgeWeight[e];
+                if (abstractSpace.isClosed(u))
+                    continue;
+                if (!abstractSpace.isVisited(u) || g_score < abstractSpace.gScore[u]) {
+                    int h = manhattan(graph.nodeCells[u], goalRow, goalCol);
+                    abstractSpace.open(u, g_score, v);
+                    openSet.push(u, g_score + h, h);
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the Manhattan distance from a cell to the goal.
+     */
+    private int manhattan(int cell, int goalRow, int goalCol) {
+        return Math.abs(grid.row(cell) - goalRow) + Math.abs(grid.col(cell) - goalCol);
+    }
+
+    /**
+     * Compare with plain A* on maps of the MapGenerator, with an exact and an approximate graph.
+     * Exact lengths must agree, refined paths must be walkable and as long as the length found.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = 300;
+        MapGenerator generator = new MapGenerator(size, size);
+        long astarTime = 0, exactTime = 0, approximateTime = 0, queries = 0, approximateExcess = 0;
+        for (int m = 0; m < 5; m++) {
+            GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+            AStarPathFinder astar = new AStarPathFinder(grid);
+            HierarchicalPathFinder exact = new HierarchicalPathFinder(new HierarchicalGraph(grid, 16, true));
+            HierarchicalPathFinder approximate = new HierarchicalPathFinder(new HierarchicalGraph(grid, 16, false));
+            List<Point> points = new ArrayList<Point>();
+            for (int cell = 0; cell < grid.size(); cell++) {
+                if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+            }
+            for (int i = 0; i < points.size(); i++) {
+                for (int j = i + 1; j < points.size(); j++) {
+                    Point a = points.get(i), b = points.get(j);
+                    long t0 = System.nanoTime();
+                    int expected = astar.getShortestPath(a, b, size, size);
+                    long t1 = System.nanoTime();
+                    int actual = exact.getShortestPath(a, b, size, size);
+                    long t2 = System.nanoTime();
+                    int bound = approximate.getShortestPath(a, b, size, size);
+                    long t3 = System.nanoTime();
+                    if (actual != expected || (bound == 0) != (expected == 0) || bound < expected)
+                        throw new IllegalStateException("Wrong path length for " + a + " " + b);
+                    List<Point> path = exact.getPath(a, b);
+                    if (expected > 0 && (path.size() != expected + 1 || !path.get(0).equals(a)
+                            || !path.get(path.size() - 1).equals(b)))
+                        throw new IllegalStateException("Wrong refined path for " + a + " " + b);
+                    for (int k = 1; path != null && k < path.size(); k++) {
+                        Point p = path.get(k - 1), q = path.get(k);
+                        if (Math.abs(p.row - q.row) + Math.abs(p.col - q.col) != 1 || !grid.isFree(grid.index(q)))
+                            throw new IllegalStateException("Broken refined path for " + a + " " + b);
+                    }
+                    astarTime += t1 - t0;
+                    exactTime += t2 - t1;
+                    approximateTime += t3 - t2;
+                    approximateExcess += bound - expected;
+                    queries++;
+                }
+            }
+        }
+        System.out.println(queries + " queries: A* " + astarTime / 1000000 + " ms, exact HPA* "
+                + exactTime / 1000000 + " ms, approximate HPA* " + approximateTime / 1000000
+                + " ms, " + approximateExcess + " extra steps in total");
+    }
+}
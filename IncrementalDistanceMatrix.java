@@ -0,0 +1,291 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The IncrementalDistanceMatrix keeps one shortest path tree per point with Lifelong Planning A*
+ * (LPA*), the search underneath D* Lite, and repairs the trees when walls change.
+ *
+ * Every cell u of a tree has two values: g(u), the distance found so far, and rhs(u), the distance
+ * through the best neighbor, min(g(v) + 1), which is 0 for the source. A cell is consistent when
+ * both are equal. Inconsistent cells wait in a priority queue by min(g, rhs): an overconsistent
+ * cell (g > rhs) takes its rhs as its g, like a cell settled by Dijkstra's algorithm, and an
+ * underconsistent cell (g < rhs) lost its path and forgets its g. Either way its neighbors compute
+ * their rhs again and may become inconsistent in turn. The search stops as soon as the targets are
+ * consistent and nothing in the queue is shorter than them.
+ *
+ * The trees are first built by breadth first floods over the whole component, which leave every
+ * cell consistent. After an edit, only the cells around it become inconsistent, so the repair only
+ * touches the cells whose distance really changes, and the entries of the matrix which changed are
+ * counted. There is no heuristic, since every tree serves several targets. The trees keep two ints
+ * per cell each, so this is for a moderate number of points.
+ */
+public class IncrementalDistanceMatrix implements DynamicDistanceMatrix {
+    private static final int INFINITY = Integer.MAX_VALUE;
+
+    private GridMap grid;
+    private int[] neighbors;
+    private List<Point> points;
+    private int[][] distances;
+    // The tree of point i serves the points after it.
+    private Tree[] trees;
+
+    /**
+     * @param grid the grid map, which the edits change.
+     */
+    public IncrementalDistanceMatrix(GridMap grid) {
+        this.grid = grid;
+        neighbors = grid.neighborOffsets();
+    }
+
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        this.points = new ArrayList<Point>(points);
+        int n = points.size();
+        distances = new int[n][n];
+        trees = new Tree[Math.max(0, n - 1)];
+        for (int i = 0; i < n - 1; i++) {
+            int[] targets = new int[n - i - 1];
+            for (int j = i + 1; j < n; j++) targets[j - i - 1] = grid.index(points.get(j));
+            trees[i] = new Tree(grid.index(points.get(i)), targets);
+        }
+        refresh();
+        return distances;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix() {
+        return distances;
+    }
+
+    @Override
+    public int blockCell(Point cell) {
+        int c = grid.index(cell);
+        if (!grid.isFree(c))
+            return 0;
+        grid.block(c);
+        for (Tree tree : trees) {
+            tree.update(c);
+            for (int offset : neighbors) tree.update(c + offset);
+            tree.compute();
+        }
+        return refresh();
+    }
+
+    @Override
+    public int unblockCell(Point cell) {
+        int c = grid.index(cell);
+        if (grid.isFree(c))
+            return 0;
+        grid.unblock(c);
+        for (Tree tree : trees) {
+            // The neighbors improve through the cell once the cell has got its distance.
+            tree.update(c);
+            tree.compute();
+        }
+        return refresh();
+    }
+
+    /**
+     * Copy the distances of the targets of the trees into the matrix.
+     *
+     * @return the number of pairs whose distance changed.
+     */
+    private int refresh() {
+        int changed = 0;
+        for (int i = 0; i < trees.length; i++) {
+            for (int j = i + 1; j < points.size(); j++) {
+                int g = trees[i].g[trees[i].targets[j - i - 1]];
+                int d = g == INFINITY ? 0 : g;
+                if (distances[i][j] != d) {
+                    distances[i][j] = d;
+                    distances[j][i] = d;
+                    changed++;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The shortest path tree of one source.
+     */
+    private class Tree {
+        private int source;
+        private int[] targets;
+        private int[] g, rhs;
+        // The queue, as min(g, rhs) << 32 | cell. A cell is pushed again whenever its key changes,
+        // the entries which do not match the cell any more are skipped when popped.
+        private long[] heap = new long[1024];
+        private int heapSize;
+
+        Tree(int source, int[] targets) {
+            this.source = source;
+            this.targets = targets;
+            g = new int[grid.size()];
+            rhs = new int[grid.size()];
+            Arrays.fill(g, INFINITY);
+            Arrays.fill(rhs, INFINITY);
+
+            // A breadth first flood of the whole component leaves every cell consistent and the queue empty.
+            int[] queue = new int[grid.size()];
+            int head = 0, tail = 0;
+            queue[tail++] = source;
+            g[source] = rhs[source] = 0;
+            while (head < tail) {
+                int cur = queue[head++];
+                for (int offset : neighbors) {
+                    int next = cur + offset;
+                    if (grid.isFree(next) && g[next] == INFINITY) {
+                        g[next] = rhs[next] = g[cur] + 1;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Compute the rhs of a cell again and queue it if it is inconsistent.
+         */
+        void update(int u) {
+            if (u != source) {
+                int best = INFINITY;
+                if (grid.isFree(u)) {
+                    for (int offset : neighbors) {
+                        int v = u + offset;
+                        if (grid.isFree(v) && g[v] != INFINITY && g[v] + 1 < best) best = g[v] + 1;
+                    }
+                }
+                rhs[u] = best;
+            }
+            if (g[u] != rhs[u]) push(Math.min(g[u], rhs[u]), u);
+        }
+
+        /**
+         * Make cells consistent in the order of their keys until the targets are settled.
+         */
+        void compute() {
+            while (heapSize > 0) {
+                long top = heap[0];
+                int key = (int) (top >>> 32);
+                if (isSettled(key))
+                    break;
+                pop();
+                int u = (int) top;
+                if (g[u] == rhs[u] || key != Math.min(g[u], rhs[u]))
+                    continue;
+                if (g[u] > rhs[u]) {
+                    g[u] = rhs[u];
+                } else {
+                    g[u] = INFINITY;
+                    update(u);
+                }
+                for (int offset : neighbors) update(u + offset);
+            }
+        }
+
+        /**
+         * @param key the smallest key in the queue.
+         * @return whether all the targets are consistent and no queued cell could shorten them.
+         */
+        private boolean isSettled(int key) {
+            for (int t : targets) {
+                if (g[t] != rhs[t] || key < g[t])
+                    return false;
+            }
+            return true;
+        }
+
+        private void push(int key, int cell) {
+            if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+            long entry = (long) key << 32 | cell;
+            int i = heapSize++;
+            while (i > 0 && heap[(i - 1) >>> 1] > entry) {
+                heap[i] = heap[(i - 1) >>> 1];
+                i = (i - 1) >>> 1;
+            }
+            heap[i] = entry;
+        }
+
+        private void pop() {
+            long last = heap[--heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize)
+                    break;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+                if (heap[child] >= last)
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+        }
+    }
+
+    /**
+     * Block and unblock random cells on large maps of the MapGenerator, comparing every repaired
+     * matrix with the breadth first floods on the edited map.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = 1000;
+        MapGenerator generator = new MapGenerator(size, size);
+        Random rand = new Random(size);
+        GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+        List<Point> points = new ArrayList<Point>();
+        for (int cell = 0; cell < grid.size(); cell++) {
+            if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+        }
+        long t0 = System.nanoTime();
+        IncrementalDistanceMatrix dynamic = new IncrementalDistanceMatrix(grid);
+        dynamic.getDistanceMatrix(points);
+        long t1 = System.nanoTime();
+        AStarPathFinder floods = new AStarPathFinder(grid);
+        floods.getDistanceMatrix(points);
+        long t2 = System.nanoTime();
+        System.out.println(points.size() + " points, initial trees " + (t1 - t0) / 1000000 + " ms, floods "
+                + (t2 - t1) / 1000000 + " ms");
+
+        long repairTime = 0, floodTime = 0;
+        int edits = 0, changed = 0;
+        List<Point> blocked = new ArrayList<Point>();
+        while (edits < 200) {
+            Point cell;
+            boolean block = blocked.isEmpty() || rand.nextInt(3) > 0;
+            if (block) {
+                // Close to a point, where the cells are on many shortest paths.
+                Point near = points.get(rand.nextInt(points.size()));
+                cell = new Point(near.row + rand.nextInt(7) - 3, near.col + rand.nextInt(7) - 3);
+                if (cell.row < 0 || cell.row >= size || cell.col < 0 || cell.col >= size)
+                    continue;
+                if (!grid.isFree(grid.index(cell)) || grid.isMarked(grid.index(cell)))
+                    continue;
+                blocked.add(cell);
+            } else {
+                cell = blocked.remove(rand.nextInt(blocked.size()));
+            }
+            long t3 = System.nanoTime();
+            changed += block ? dynamic.blockCell(cell) : dynamic.unblockCell(cell);
+            long t4 = System.nanoTime();
+            int[][] expected = floods.getDistanceMatrix(points);
+            long t5 = System.nanoTime();
+            if (!Arrays.deepEquals(expected, dynamic.getDistanceMatrix()))
+                throw new IllegalStateException("Wrong matrix after editing " + cell);
+            repairTime += t4 - t3;
+            floodTime += t5 - t4;
+            edits++;
+        }
+        System.out.println(edits + " edits, " + changed + " entries changed, repairs " + repairTime / 1000000
+                + " ms, floods from scratch " + floodTime / 1000000 + " ms");
+    }
+}
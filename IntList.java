@@ -0,0 +1,20 @@
+package jp.co.worksap.global;
+
+import java.util.Arrays;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * A growable array of ints, used while building the graphs of the map abstractions.
+ */
+class IntList {
+    int[] values = new int[64];
+    int size = 0;
+
+    void add(int value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+}
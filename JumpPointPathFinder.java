@@ -0,0 +1,193 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The JumpPointPathFinder implements Jump Point Search for 4-connected grids.
+ * On open floor there are a huge number of shortest paths between two cells which only differ in
+ * the order of their moves, and plain A* expands the cells of all of them. JPS removes this symmetry
+ * by only expanding jump points: from a cell, the search "jumps" in a straight line and does not
+ * stop until it meets the goal or a cell where the straight line is no longer the only reasonable
+ * way to continue. The cells passed over are never put into the open set.
+ *
+ * With 4 directions, horizontal moves play the role of the straight moves and vertical moves play
+ * the role of the diagonal moves of the classic 8-connected JPS:
+ * - A horizontal jump stops at a cell with a forced neighbor, i.e. a free cell above or below whose
+ *   counterpart one step back is a wall, since the path around that wall may have to turn here.
+ * - A vertical jump stops at a cell with a forced neighbor on the left or right in the same way, and
+ *   also at any cell from which a horizontal jump would find a jump point or the goal.
+ * From a jump point reached horizontally, the search continues straight and turns up and down.
+ * From a jump point reached vertically, it continues straight and turns left and right.
+ *
+ * The cost between two jump points is the length of the straight line between them, so the lengths
+ * found are exactly those of plain A*.
+ */
+public class JumpPointPathFinder implements PathFinder {
+    private GridMap grid;
+    private int stride;
+    private SearchWorkspace workspace;
+    private OpenList openSet;
+    // The number of jump points expanded by the last query.
+    private int expanded;
+
+    /**
+     * Construct a finder on an already built map.
+     *
+     * @param grid the grid map.
+     */
+    public JumpPointPathFinder(GridMap grid) {
+        this.grid = grid;
+        stride = grid.stride();
+        workspace = new SearchWorkspace(grid.size());
+        openSet = new BinaryHeapOpenList();
+    }
+
+    public GridMap getGrid() {
+        return grid;
+    }
+
+    /**
+     * @return the number of jump points expanded by the last query.
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * The heuristic value of a cell, which is the manhattan distance to the target.
+     * It is exact on an empty map with 4 directions, so it never overestimates.
+     */
+    private int estimate(int cell, int target) {
+        return Math.abs(cell / stride - target / stride) + Math.abs(cell % stride - target % stride);
+    }
+
+    @Override
+    public int getShortestPath(Point start, Point goal, int width, int height) {
+        int from = grid.index(start);
+        int to = grid.index(goal);
+        workspace.reset();
+        openSet.clear();
+        expanded = 0;
+
+        workspace.open(from, 0, -1);
+        int h = estimate(from, to);
+        openSet.push(from, h, h);
+
+        while (!openSet.isEmpty()) {
+            int cur = openSet.pop();
+            if (workspace.isClosed(cur))
+                continue;
+            if (cur == to) {
+                return workspace.gScore[cur];
+            }
+            workspace.close(cur);
+            expanded++;
+
+            // The start jumps in all directions, other jump points go straight on and turn.
+            int parent = workspace.parent[cur];
+            if (parent < 0) {
+                tryJump(cur, -stride, to);
+                tryJump(cur, stride, to);
+                tryJump(cur, -1, to);
+                tryJump(cur, 1, to);
+            } else if (parent / stride == cur / stride) {
+                tryJump(cur, cur > parent ? 1 : -1, to);
+                tryJump(cur, -stride, to);
+                tryJump(cur, stride, to);
+            } else {
+                tryJump(cur, cur > parent ? stride : -stride, to);
+                tryJump(cur, -1, to);
+                tryJump(cur, 1, to);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Jump from a cell in one direction and open the jump point found, if any.
+     *
+     * @param cur    the cell being expanded.
+     * @param offset the index offset of the direction.
+     * @param target the goal of the query.
+     */
+    private void tryJump(int cur, int offset, int target) {
+        int jumpPoint = jump(cur, offset, target);
+        if (jumpPoint < 0 || workspace.isClosed(jumpPoint))
+            return;
+        // The jump point lies on a straight line, so its distance is the difference of either coordinate.
+        int length = offset == 1 || offset == -1 ? Math.abs(jumpPoint - cur) : Math.abs(jumpPoint - cur) / stride;
+        int g_score = workspace.gScore[cur] + length;
+        if (!workspace.isVisited(jumpPoint) || g_score < workspace.gScore[jumpPoint]) {
+            workspace.open(jumpPoint, g_score, cur);
+            int h = estimate(jumpPoint, target);
+            openSet.push(jumpPoint, g_score + h, h);
+        }
+    }
+
+    /**
+     * Walk from a cell in one direction until a jump point is found.
+     *
+     * @param from   the cell to jump from, which is not checked itself.
+     * @param offset the index offset of the direction.
+     * @param target the goal of the query.
+     * @return the jump point, or -1 if a wall is hit first.
+     */
+    private int jump(int from, int offset, int target) {
+        boolean horizontal = offset == 1 || offset == -1;
+        int side = horizontal ? stride : 1;
+        for (int cell = from + offset; grid.isFree(cell); cell += offset) {
+            if (cell == target)
+                return cell;
+            // A free side cell whose counterpart one step back is a wall is a forced neighbor.
+            if (grid.isFree(cell - side) && !grid.isFree(cell - offset - side)
+                    || grid.isFree(cell + side) && !grid.isFree(cell - offset + side))
+                return cell;
+            if (!horizontal && (jump(cell, 1, target) >= 0 || jump(cell, -1, target) >= 0))
+                return cell;
+        }
+        return -1;
+    }
+
+    /**
+     * Compare with plain A* on maps of the MapGenerator.
+     * The path lengths must agree, the numbers of expanded cells are printed.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = 200;
+        MapGenerator generator = new MapGenerator(size, size);
+        long astarExpanded = 0, jpsExpanded = 0, astarTime = 0, jpsTime = 0;
+        for (int m = 0; m < 10; m++) {
+            GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+            AStarPathFinder astar = new AStarPathFinder(grid);
+            JumpPointPathFinder jps = new JumpPointPathFinder(grid);
+            List<Point> points = new ArrayList<Point>();
+            for (int cell = 0; cell < grid.size(); cell++) {
+                if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+            }
+            for (int i = 0; i < points.size(); i++) {
+                for (int j = i + 1; j < points.size(); j++) {
+                    long t0 = System.nanoTime();
+                    int expected = astar.getShortestPath(points.get(i), points.get(j), size, size);
+                    long t1 = System.nanoTime();
+                    int actual = jps.getShortestPath(points.get(i), points.get(j), size, size);
+                    long t2 = System.nanoTime();
+                    if (actual != expected)
+                        throw new IllegalStateException("Different path lengths for " + points.get(i) + " " + points.get(j));
+                    astarExpanded += astar.getExpandedCount();
+                    jpsExpanded += jps.getExpandedCount();
+                    astarTime += t1 - t0;
+                    jpsTime += t2 - t1;
+                }
+            }
+        }
+        System.out.println("A*:  " + astarExpanded + " expanded, " + astarTime / 1000000 + " ms");
+        System.out.println("JPS: " + jpsExpanded + " expanded, " + jpsTime / 1000000 + " ms");
+    }
+}
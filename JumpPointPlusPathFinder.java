@@ -0,0 +1,202 @@
+package jp.co.worksap.global;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The JumpPointPlusPathFinder implements JPS+, the Jump Point Search of JumpPointPathFinder with
+ * the jumps precomputed in a JumpTable. Expanding a jump point costs four table lookups instead of
+ * walking the lines cell by cell, so the online part of a query never scans the map.
+ *
+ * The table ignores the goal, so the search handles it when generating successors:
+ * - moving horizontally, the goal is a successor if it is on the same row within the jump,
+ * - moving vertically, the cell on the row of the goal is a successor if that row is within the jump,
+ *   since the dynamic search would stop there when the horizontal jump from it finds the goal.
+ * Stopping at that cell even when the goal cannot be seen from it only adds a successor, which
+ * never changes the path lengths.
+ */
+public class JumpPointPlusPathFinder implements PathFinder {
+    private GridMap grid;
+    private JumpTable table;
+    private int stride;
+    private int[] offsets;
+    private SearchWorkspace workspace;
+    private OpenList openSet;
+    // The number of jump points expanded by the last query.
+    private int expanded;
+
+    /**
+     * Construct a finder with a table built in memory.
+     *
+     * @param grid the grid map.
+     */
+    public JumpPointPlusPathFinder(GridMap grid) {
+        this(grid, JumpTable.build(grid));
+    }
+
+    /**
+     * Construct a finder with the table stored in a sidecar file, which is created if needed.
+     *
+     * @param grid    the grid map.
+     * @param sidecar the file of the jump table.
+     * @throws IOException
+     */
+    public JumpPointPlusPathFinder(GridMap grid, File sidecar) throws IOException {
+        this(grid, JumpTable.loadOrBuild(sidecar, grid));
+    }
+
+    /**
+     * Construct a finder with an existing table.
+     *
+     * @param grid  the grid map.
+     * @param table the jump table of the map.
+     */
+    public JumpPointPlusPathFinder(GridMap grid, JumpTable table) {
+        this.grid = grid;
+        this.table = table;
+        stride = grid.stride();
+        offsets = grid.neighborOffsets();
+        workspace = new SearchWorkspace(grid.size());
+        openSet = new BinaryHeapOpenList();
+    }
+
+    /**
+     * @return the number of jump points expanded by the last query.
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    private int estimate(int cell, int target) {
+        return Math.abs(cell / stride - target / stride) + Math.abs(cell % stride - target % stride);
+    }
+
+    @Override
+    public int getShortestPath(Point start, Point goal, int width, int height) {
+        int from = grid.index(start);
+        int to = grid.index(goal);
+        workspace.reset();
+        openSet.clear();
+        expanded = 0;
+
+        workspace.open(from, 0, -1);
+        int h = estimate(from, to);
+        openSet.push(from, h, h);
+
+        while (!openSet.isEmpty()) {
+            int cur = openSet.pop();
+            if (workspace.isClosed(cur))
+                continue;
+            if (cur == to) {
+                return workspace.gScore[cur];
+            }
+            workspace.close(cur);
+            expanded++;
+
+            // Directions are up, down, left, right as in the table.
+            int parent = workspace.parent[cur];
+            if (parent < 0) {
+                for (int direction = 0; direction < 4; direction++) {
+                    expand(cur, direction, to);
+                }
+            } else if (parent / stride == cur / stride) {
+                expand(cur, cur > parent ? 3 : 2, to);
+                expand(cur, 0, to);
+                expand(cur, 1, to);
+            } else {
+                expand(cur, cur > parent ? 1 : 0, to);
+                expand(cur, 2, to);
+                expand(cur, 3, to);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Generate the successor of a cell in one direction from the table and open it.
+     *
+     * @param cur       the cell being expanded.
+     * @param direction the direction.
+     * @param target    the goal of the query.
+     */
+    private void expand(int cur, int direction, int target) {
+        int d = table.get(cur, direction);
+        int run = d > 0 ? d : -d;
+        int sign = (direction & 1) == 1 ? 1 : -1;
+        if (direction >= 2) {
+            int toTarget = (target - cur) * sign;
+            if (target / stride == cur / stride && toTarget > 0 && toTarget <= run) {
+                open(cur, target, toTarget, target);
+                return;
+            }
+        } else {
+            int toTargetRow = (target / stride - cur / stride) * sign;
+            if (toTargetRow > 0 && toTargetRow <= run) {
+                open(cur, cur + toTargetRow * offsets[direction], toTargetRow, target);
+                return;
+            }
+        }
+        if (d > 0) {
+            open(cur, cur + d * offsets[direction], d, target);
+        }
+    }
+
+    private void open(int cur, int successor, int length, int target) {
+        if (workspace.isClosed(successor))
+            return;
+        int g_score = workspace.gScore[cur] + length;
+        if (!workspace.isVisited(successor) || g_score < workspace.gScore[successor]) {
+            workspace.open(successor, g_score, cur);
+            int h = estimate(successor, target);
+            openSet.push(successor, g_score + h, h);
+        }
+    }
+
+    /**
+     * Compare with JPS on maps of the MapGenerator, with the table going through a sidecar file.
+     * The path lengths must agree, the numbers of expanded cells and the times are printed.
+     *
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int size = 400;
+        MapGenerator generator = new MapGenerator(size, size);
+        long jpsTime = 0, plusTime = 0, jpsExpanded = 0, plusExpanded = 0;
+        File sidecar = File.createTempFile("map", ".jps");
+        sidecar.deleteOnExit();
+        for (int m = 0; m < 10; m++) {
+            GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+            JumpPointPathFinder jps = new JumpPointPathFinder(grid);
+            JumpTable.build(grid).write(sidecar, grid);
+            JumpPointPlusPathFinder plus = new JumpPointPlusPathFinder(grid, JumpTable.load(sidecar, grid));
+            List<Point> points = new ArrayList<Point>();
+            for (int cell = 0; cell < grid.size(); cell++) {
+                if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+            }
+            for (int i = 0; i < points.size(); i++) {
+                for (int j = i + 1; j < points.size(); j++) {
+                    long t0 = System.nanoTime();
+                    int expected = jps.getShortestPath(points.get(i), points.get(j), size, size);
+                    long t1 = System.nanoTime();
+                    int actual = plus.getShortestPath(points.get(i), points.get(j), size, size);
+                    long t2 = System.nanoTime();
+                    if (actual != expected)
+                        throw new IllegalStateException("Different path lengths for " + points.get(i) + " " + points.get(j));
+                    jpsTime += t1 - t0;
+                    plusTime += t2 - t1;
+                    jpsExpanded += jps.getExpandedCount();
+                    plusExpanded += plus.getExpandedCount();
+                }
+            }
+        }
+        System.out.println("JPS:  " + jpsExpanded + " expanded, " + jpsTime / 1000000 + " ms");
+        System.out.println("JPS+: " + plusExpanded + " expanded, " + plusTime / 1000000 + " ms");
+    }
+}
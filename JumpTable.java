@@ -0,0 +1,213 @@
+package jp.co.worksap.global;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The JumpTable stores, for every free cell and each of the 4 directions, where the jump of the
+ * 4-connected Jump Point Search from that cell would stop, ignoring the goal:
+ * - a positive value d means that there is a jump point d steps away,
+ * - a value of 0 or less means that there is no jump point and -d free cells come before a wall.
+ * Directions are in the order of GridMap.neighborOffsets(): up, down, left, right.
+ *
+ * Jump points do not depend on the query except for the goal, which the search handles on its own,
+ * so the table is computed once per map. Each row is scanned once against each horizontal direction
+ * and each column once against each vertical direction, with the value of a cell derived from the
+ * value of the next cell, so building the table is O(W*H).
+ *
+ * The table can be written to a sidecar file next to the map and memory mapped at the next start,
+ * so maps reused thousands of times pay for the preprocessing once. The file holds a header
+ * (magic, version, width, height, checksum of the map) followed by 4 shorts per cell in big endian.
+ */
+class JumpTable {
+    private static final int MAGIC = 0x4A505350;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    private final ShortBuffer table;
+
+    private JumpTable(ShortBuffer table) {
+        this.table = table;
+    }
+
+    /**
+     * @param cell      the index of the cell.
+     * @param direction 0, 1, 2, 3 for up, down, left, right.
+     * @return the jump distance from the cell in the direction.
+     */
+    public int get(int cell, int direction) {
+        return table.get(cell * 4 + direction);
+    }
+
+    /**
+     * Reject the maps whose jumps do not fit in shorts, or whose table of 4 shorts per cell cannot
+     * be indexed by ints, where grid.size() * 4 would overflow.
+     *
+     * @param grid the grid map.
+     */
+    private static void checkSize(GridMap grid) {
+        if (Math.max(grid.width(), grid.height()) >= Short.MAX_VALUE)
+            throw new IllegalArgumentException("The map is too large for a jump table: "
+                    + grid.width() + "x" + grid.height() + ", the jumps do not fit in shorts");
+        long entries = (long) grid.size() * 4;
+        if (entries > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("The map is too large for a jump table: "
+                    + grid.width() + "x" + grid.height() + " needs " + entries + " entries");
+    }
+
+    /**
+     * Compute the jump table of a map.
+     *
+     * @param grid the grid map.
+     * @return the table.
+     */
+    public static JumpTable build(GridMap grid) {
+        checkSize(grid);
+        int stride = grid.stride();
+        short[] t = new short[grid.size() * 4];
+
+        // Horizontal directions first, vertical jump points depend on them.
+        for (int row = 0; row < grid.height(); row++) {
+            for (int col = grid.width() - 1; col >= 0; col--) {
+                int cell = grid.index(row, col);
+                if (grid.isFree(cell))
+                    t[cell * 4 + 3] = next(grid, t, cell + 1, 3, isForced(grid, cell + 1, 1, stride));
+            }
+            for (int col = 0; col < grid.width(); col++) {
+                int cell = grid.index(row, col);
+                if (grid.isFree(cell))
+                    t[cell * 4 + 2] = next(grid, t, cell - 1, 2, isForced(grid, cell - 1, -1, stride));
+            }
+        }
+        // A vertical jump also stops where a horizontal jump would find a jump point.
+        for (int col = 0; col < grid.width(); col++) {
+            for (int row = 0; row < grid.height(); row++) {
+                int cell = grid.index(row, col);
+                int up = cell - stride;
+                if (grid.isFree(cell))
+                    t[cell * 4] = next(grid, t, up, 0,
+                            isForced(grid, up, -stride, 1) || t[up * 4 + 2] > 0 || t[up * 4 + 3] > 0);
+            }
+            for (int row = grid.height() - 1; row >= 0; row--) {
+                int cell = grid.index(row, col);
+                int down = cell + stride;
+                if (grid.isFree(cell))
+                    t[cell * 4 + 1] = next(grid, t, down, 1,
+                            isForced(grid, down, stride, 1) || t[down * 4 + 2] > 0 || t[down * 4 + 3] > 0);
+            }
+        }
+        return new JumpTable(ShortBuffer.wrap(t));
+    }
+
+    /**
+     * Derive the value of a cell from the next cell in the direction.
+     *
+     * @param next        the next cell.
+     * @param direction   the direction.
+     * @param isJumpPoint whether the next cell is a jump point for the direction.
+     * @return the value of the cell.
+     */
+    private static short next(GridMap grid, short[] t, int next, int direction, boolean isJumpPoint) {
+        if (!grid.isFree(next)) return 0;
+        if (isJumpPoint) return 1;
+        int d = t[next * 4 + direction];
+        return (short) (d > 0 ? d + 1 : d - 1);
+    }
+
+    /**
+     * @param cell   the cell entered.
+     * @param offset the index offset of the direction of the move.
+     * @param side   the index offset to the sides of the move.
+     * @return whether the cell has a free side cell whose counterpart one step back is a wall.
+     */
+    private static boolean isForced(GridMap grid, int cell, int offset, int side) {
+        return grid.isFree(cell) && (grid.isFree(cell - side) && !grid.isFree(cell - offset - side)
+                || grid.isFree(cell + side) && !grid.isFree(cell - offset + side));
+    }
+
+    /**
+     * Write the table to a sidecar file.
+     *
+     * @param file the file.
+     * @param grid the map the table was built for.
+     * @throws IOException
+     */
+    public void write(File file, GridMap grid) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(grid.width());
+            out.writeInt(grid.height());
+            out.writeLong(grid.checksum());
+            for (int i = 0; i < table.limit(); i++) {
+                out.writeShort(table.get(i));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Memory map a table from a sidecar file.
+     *
+     * @param file the file.
+     * @param grid the map the table should belong to.
+     * @return the table, or null if the file was written for another map or another version.
+     * @throws IOException
+     */
+    public static JumpTable load(File file, GridMap grid) throws IOException {
+        checkSize(grid);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long expected = HEADER_BYTES + (long) grid.size() * 4 * 2;
+            // The file is memory mapped in one piece, which is at most Integer.MAX_VALUE bytes.
+            if (expected > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("The jump table of a " + grid.width() + "x" + grid.height()
+                        + " map is too large to be memory mapped: " + expected + " bytes");
+            if (channel.size() != expected)
+                return null;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, expected);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getInt() != grid.width() || buffer.getInt() != grid.height()
+                    || buffer.getLong() != grid.checksum())
+                return null;
+            // The mapping stays valid after the channel is closed.
+            return new JumpTable(buffer.slice().asShortBuffer());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Load the table of a map from its sidecar file, or build it and write the file if the file
+     * does not exist or belongs to another map.
+     *
+     * @param file the sidecar file.
+     * @param grid the grid map.
+     * @return the table.
+     * @throws IOException
+     */
+    public static JumpTable loadOrBuild(File file, GridMap grid) throws IOException {
+        if (file.exists()) {
+            JumpTable table = load(file, grid);
+            if (table != null)
+                return table;
+        }
+        JumpTable table = build(grid);
+        table.write(file, grid);
+        return table;
+    }
+}
@@ -0,0 +1,143 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The LandmarkHeuristic implements the ALT heuristic (A*, Landmarks, Triangle inequality).
+ * On a cluttered map the straight line distance says little about the length of the way around the
+ * walls, and A* with it expands nearly as much as Dijkstra's algorithm. ALT picks a few landmark cells
+ * and stores the exact distance from each landmark to every cell. By the triangle inequality, for
+ * any landmark L, the distance from a cell v to the target t is at least |d(L, t) - d(L, v)|, and this
+ * bound follows the walls because the distances do. The estimate is the largest bound over the
+ * landmarks, and never less than the manhattan distance.
+ *
+ * Landmarks are picked by farthest point selection: each new landmark is the cell farthest from all
+ * the landmarks picked so far, so that they spread to the edges of the map where the bounds are best.
+ * The distance fields are computed with the BitParallelBfs.
+ */
+public class LandmarkHeuristic implements Heuristic {
+    private int stride;
+    // The distances from every landmark to every cell, -1 for cells which are not reachable.
+    private int[][] fields;
+    private int[] landmarks;
+    // The distances from every landmark to the current target.
+    private int[] toTarget;
+    private int targetRow, targetCol;
+
+    /**
+     * Pick the landmarks of a map and compute their distance fields.
+     * The landmarks are spread over the component of the first checkpoint, start or goal on the map,
+     * or of the first free cell if there is none.
+     *
+     * @param grid  the grid map.
+     * @param count the number of landmarks.
+     */
+    public LandmarkHeuristic(GridMap grid, int count) {
+        stride = grid.stride();
+        int seed = -1;
+        for (int cell = 0; cell < grid.size() && seed < 0; cell++) {
+            if (grid.isMarked(cell)) seed = cell;
+        }
+        for (int cell = 0; cell < grid.size() && seed < 0; cell++) {
+            if (grid.isFree(cell)) seed = cell;
+        }
+
+        BitParallelBfs bfs = new BitParallelBfs(grid);
+        List<int[]> picked = new ArrayList<int[]>();
+        List<Integer> cells = new ArrayList<Integer>();
+        // The distance from every cell to the nearest landmark picked so far.
+        int[] nearest = seed < 0 ? new int[0] : bfs.getDistanceField(grid.toPoint(seed));
+        while (seed >= 0 && picked.size() < count) {
+            int farthest = -1;
+            for (int cell = 0; cell < nearest.length; cell++) {
+                if (nearest[cell] > 0 && (farthest < 0 || nearest[cell] > nearest[farthest])) farthest = cell;
+            }
+            if (farthest < 0)
+                break;
+            int[] field = bfs.getDistanceField(grid.toPoint(farthest));
+            picked.add(field);
+            cells.add(farthest);
+            for (int cell = 0; cell < nearest.length; cell++) {
+                if (field[cell] >= 0 && field[cell] < nearest[cell]) nearest[cell] = field[cell];
+            }
+        }
+
+        fields = picked.toArray(new int[picked.size()][]);
+        landmarks = new int[cells.size()];
+        for (int i = 0; i < landmarks.length; i++) landmarks[i] = cells.get(i);
+        toTarget = new int[fields.length];
+    }
+
+    /**
+     * @return the cells of the landmarks.
+     */
+    public int[] getLandmarks() {
+        return landmarks;
+    }
+
+    @Override
+    public void setTarget(int target) {
+        targetRow = target / stride;
+        targetCol = target % stride;
+        for (int i = 0; i < fields.length; i++) {
+            toTarget[i] = fields[i][target];
+        }
+    }
+
+    @Override
+    public int estimate(int cell) {
+        int h = Math.abs(cell / stride - targetRow) + Math.abs(cell % stride - targetCol);
+        for (int i = 0; i < fields.length; i++) {
+            // A landmark in another component than the target or the cell tells nothing.
+            if (toTarget[i] < 0 || fields[i][cell] < 0)
+                continue;
+            int bound = Math.abs(toTarget[i] - fields[i][cell]);
+            if (bound > h) h = bound;
+        }
+        return h;
+    }
+
+    /**
+     * Compare the numbers of cells expanded by A* with the euclidean and the landmark heuristic
+     * on maps of the MapGenerator. The path lengths must agree.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = 300;
+        MapGenerator generator = new MapGenerator(size, size);
+        long euclideanExpanded = 0, landmarkExpanded = 0, euclideanTime = 0, landmarkTime = 0;
+        for (int m = 0; m < 5; m++) {
+            GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+            AStarPathFinder euclidean = new AStarPathFinder(grid);
+            AStarPathFinder landmark = new AStarPathFinder(grid);
+            landmark.setHeuristic(new LandmarkHeuristic(grid, 8));
+            List<Point> points = new ArrayList<Point>();
+            for (int cell = 0; cell < grid.size(); cell++) {
+                if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+            }
+            for (int i = 0; i < points.size(); i++) {
+                for (int j = i + 1; j < points.size(); j++) {
+                    long t0 = System.nanoTime();
+                    int expected = euclidean.getShortestPath(points.get(i), points.get(j), size, size);
+                    long t1 = System.nanoTime();
+                    int actual = landmark.getShortestPath(points.get(i), points.get(j), size, size);
+                    long t2 = System.nanoTime();
+                    if (actual != expected)
+                        throw new IllegalStateException("Different path lengths for " + points.get(i) + " " + points.get(j));
+                    euclideanExpanded += euclidean.getExpandedCount();
+                    landmarkExpanded += landmark.getExpandedCount();
+                    euclideanTime += t1 - t0;
+                    landmarkTime += t2 - t1;
+                }
+            }
+        }
+        System.out.println("Euclidean: " + euclideanExpanded + " expanded, " + euclideanTime / 1000000 + " ms");
+        System.out.println("Landmarks: " + landmarkExpanded + " expanded, " + landmarkTime / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,201 @@
+package jp.co.worksap.global;
+
+import java.util.Random;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The LayeredHeldKarpSolver runs the same dynamic programming as HeldKarpSolver, one layer of
+ * selections at a time, and only keeps two layers alive.
+ *
+ * A selection of k checkpoints only reads selections of k - 1, so the layers go by the number of
+ * checkpoints selected. Inside layer k, the selections are enumerated in increasing order with
+ * Gosper's hack, which steps from a mask to the next larger one with the same number of bits.
+ * That order is the order of the combinatorial number system, where the selection with the bits
+ * b_1 < b_2 < ... < b_k has the rank C(b_1, 1) + C(b_2, 2) + ... + C(b_k, k), so the rank of the
+ * current selection is just a counter, and the rank of a subset is the same sum over its bits.
+ * A layer keeps k values per selection, the t-th one for standing on the t-th checkpoint of it.
+ *
+ * The peak is two neighbor layers, about n * C(n, n / 2) ints instead of n * 2^n: 24 checkpoints
+ * take 250 MB instead of 1.6 GB, 26 checkpoints 1 GB instead of 7 GB. The ranks cost some time
+ * per selection, so the flat table is faster as long as it fits.
+ */
+public class LayeredHeldKarpSolver implements CourseSolver {
+    private static final int INFINITY = 1 << 28;
+    // The largest number of checkpoints whose layers can be indexed by ints.
+    private static final int MAX_CHECKPOINTS = 29;
+
+    // binomial[a][b] = C(a, b).
+    private static final int[][] binomial = new int[32][32];
+
+    static {
+        for (int a = 0; a < 32; a++) {
+            binomial[a][0] = 1;
+            for (int b = 1; b <= a; b++) {
+                binomial[a][b] = binomial[a - 1][b - 1] + binomial[a - 1][b];
+            }
+        }
+    }
+
+    @Override
+    public int solve(int[][] distances, int numCheckPoints) {
+        int n = numCheckPoints;
+        int startIndex = n;
+        int goalIndex = n + 1;
+        if (n == 0) {
+            return distances[startIndex][goalIndex];
+        }
+        if (n > MAX_CHECKPOINTS)
+            throw new IllegalArgumentException("Too many checkpoints for the layers: " + n);
+
+        int[] dist = new int[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                dist[i * n + j] = distances[j][i];
+            }
+        }
+        // Layer 1: the selection of checkpoint i has the rank C(i, 1) = i.
+        int[] previous = new int[n];
+        for (int i = 0; i < n; i++) {
+            previous[i] = distances[startIndex][i];
+        }
+        for (int k = 2; k <= n; k++) {
+            int[] current = new int[layerSize(n, k) * k];
+            computeLayer(n, k, dist, previous, current);
+            previous = current;
+        }
+
+        // The last layer is the selection of all the checkpoints, standing on checkpoint i.
+        int answer = 1 << 30;
+        for (int i = 0; i < n; i++) {
+            answer = Math.min(answer, previous[i] + distances[i][goalIndex]);
+        }
+        return answer;
+    }
+
+    /**
+     * Compute layer k from layer k - 1.
+     *
+     * @param n        the number of checkpoints.
+     * @param k        the number of checkpoints selected in the layer.
+     * @param dist     the flat distances, from j to i at i * n + j.
+     * @param previous the values of layer k - 1.
+     * @param current  receives the values of layer k.
+     */
+    void computeLayer(int n, int k, int[] dist, int[] previous, int[] current) {
+        computeRange(n, k, dist, previous, current, 0, layerSize(n, k));
+    }
+
+    /**
+     * Compute the selections of layer k from the rank first to the rank last, exclusive. Only the
+     * values of these selections are written, so ranges may be computed at the same time.
+     */
+    static void computeRange(int n, int k, int[] dist, int[] previous, int[] current, int first, int last) {
+        int[] members = new int[k];
+        // low[t]: the part of the rank of a subset from the bits before the dropped one, which
+        // keep their place. high[t]: the part from the bits after it, which move down a place.
+        int[] low = new int[k + 1];
+        int[] high = new int[k];
+        int selection = unrank(first, k);
+        for (int rank = first; rank < last; rank++) {
+            int t = 0;
+            for (int bits = selection; bits != 0; bits &= bits - 1) {
+                members[t++] = Integer.numberOfTrailingZeros(bits);
+            }
+            low[0] = 0;
+            for (t = 0; t < k; t++) {
+                low[t + 1] = low[t] + binomial[members[t]][t + 1];
+            }
+            high[k - 1] = 0;
+            for (t = k - 1; t > 0; t--) {
+                high[t - 1] = high[t] + binomial[members[t]][t];
+            }
+
+            for (int s = 0; s < k; s++) {
+                // Standing on the s-th checkpoint i, coming from the t-th checkpoint j of the
+                // subset, which is members[t] before i and members[t + 1] after it.
+                int row = members[s] * n;
+                int base = (low[s] + high[s]) * (k - 1);
+                int best = INFINITY;
+                for (t = 0; t < s; t++) {
+                    int length = previous[base + t] + dist[row + members[t]];
+                    if (length < best) best = length;
+                }
+                for (t = s; t < k - 1; t++) {
+                    int length = previous[base + t] + dist[row + members[t + 1]];
+                    if (length < best) best = length;
+                }
+                current[rank * k + s] = best;
+            }
+
+            // Gosper's hack: the next larger mask with k bits.
+            int lowest = selection & -selection;
+            int ripple = selection + lowest;
+            selection = (((ripple ^ selection) >>> 2) / lowest) | ripple;
+        }
+    }
+
+    /**
+     * @param rank the rank of a selection in the combinatorial number system.
+     * @param k    the number of checkpoints selected.
+     * @return the mask of the selection, whose bits are taken greedily from the highest.
+     */
+    static int unrank(int rank, int k) {
+        int selection = 0;
+        int b = 31;
+        for (int t = k; t > 0; t--) {
+            while (binomial[b][t] > rank) b--;
+            selection |= 1 << b;
+            rank -= binomial[b][t];
+            b--;
+        }
+        return selection;
+    }
+
+    /**
+     * @return the number of selections of k among n checkpoints.
+     */
+    static int layerSize(int n, int k) {
+        return binomial[n][k];
+    }
+
+    /**
+     * @return the ints of the two largest neighbor layers of n checkpoints.
+     */
+    static long peakInts(int n) {
+        long peak = n;
+        for (int k = 2; k <= n; k++) {
+            peak = Math.max(peak, (long) binomial[n][k - 1] * (k - 1) + (long) binomial[n][k] * k);
+        }
+        return peak;
+    }
+
+    /**
+     * Compare with HeldKarpSolver on random matrices of 18 to 22 checkpoints, then go on alone
+     * with larger ones, up to 26 by default.
+     *
+     * @param args the largest number of checkpoints.
+     */
+    public static void main(String[] args) {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 26;
+        Random rand = new Random(23);
+        for (int n = 18; n <= largest; n++) {
+            int[][] distances = HeldKarpSolver.randomDistances(n, rand);
+            long t0 = System.nanoTime();
+            int answer = new LayeredHeldKarpSolver().solve(distances, n);
+            long t1 = System.nanoTime();
+            String line = "n = " + n + ": layered " + (t1 - t0) / 1000000 + " ms, " + (peakInts(n) * 4 >> 20)
+                    + " MB of layers";
+            if (n <= 22) {
+                int expected = new HeldKarpSolver(false).solve(distances, n);
+                long t2 = System.nanoTime();
+                if (answer != expected)
+                    throw new IllegalStateException("Different answers");
+                line += ", flat table " + (t2 - t1) / 1000000 + " ms, " + (((long) n << n) * 4 >> 20) + " MB";
+            }
+            System.out.println(line);
+        }
+    }
+}
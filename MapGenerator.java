@@ -1,5 +1,8 @@
 package jp.co.worksap.global;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 /**
@@ -20,10 +23,12 @@ public class MapGenerator {
 
     public static void main(String[] args) {
         MapGenerator generator = new MapGenerator(100, 100);
-        for (int i = 0; i < 100; i++)
+        for (int i = 0; i < 100; i++) {
+            System.out.println("" + generator.width + " " + generator.height);
             for (String s : generator.generate()) {
                 System.out.println(s);
             }
+        }
     }
 
     public String[] generate() {
@@ -92,7 +97,64 @@ public class MapGenerator {
             }
             map[i] = row;
         }
-        System.out.println("" + width + " " + height);
+        return map;
+    }
+
+    /**
+     * Generate a maze: corridors of one cell carved by a randomized depth first search, with a few
+     * walls knocked out so that there are loops, and the start, the goal and the checkpoints placed
+     * on random corridor cells. Almost every cell of such a map lies inside a corridor.
+     *
+     * @return the rows of the map.
+     */
+    public String[] generateMaze() {
+        Random rand = new Random(System.nanoTime());
+        char[][] cells = new char[height][width];
+        for (char[] row : cells) Arrays.fill(row, '#');
+
+        // Carve from (1, 1) through the cells at odd coordinates.
+        int[][] moves = {{-2, 0}, {2, 0}, {0, -2}, {0, 2}};
+        List<int[]> stack = new ArrayList<int[]>();
+        stack.add(new int[]{1, 1});
+        cells[1][1] = '.';
+        while (!stack.isEmpty()) {
+            int[] cur = stack.get(stack.size() - 1);
+            List<int[]> next = new ArrayList<int[]>();
+            for (int[] move : moves) {
+                int row = cur[0] + move[0], col = cur[1] + move[1];
+                if (row > 0 && row < height - 1 && col > 0 && col < width - 1 && cells[row][col] == '#')
+                    next.add(new int[]{row, col});
+            }
+            if (next.isEmpty()) {
+                stack.remove(stack.size() - 1);
+                continue;
+            }
+            int[] cell = next.get(rand.nextInt(next.size()));
+            cells[(cur[0] + cell[0]) / 2][(cur[1] + cell[1]) / 2] = '.';
+            cells[cell[0]][cell[1]] = '.';
+            stack.add(cell);
+        }
+        for (int i = 0; i < width * height / 50; i++) {
+            cells[1 + rand.nextInt(height - 2)][1 + rand.nextInt(width - 2)] = '.';
+        }
+
+        final int MAX_CHECKPOINT = 18;
+        char[] marks = new char[MAX_CHECKPOINT + 2];
+        Arrays.fill(marks, '@');
+        marks[0] = 'S';
+        marks[1] = 'G';
+        for (char mark : marks) {
+            while (true) {
+                int row = 1 + rand.nextInt(height - 2), col = 1 + rand.nextInt(width - 2);
+                if (cells[row][col] == '.') {
+                    cells[row][col] = mark;
+                    break;
+                }
+            }
+        }
+
+        String[] map = new String[height];
+        for (int i = 0; i < height; i++) map[i] = new String(cells[i]);
         return map;
     }
 }
@@ -0,0 +1,56 @@
+package jp.co.worksap.global;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The MappedGridMap keeps the cells of a GridMap in a memory mapped file, 2 bits per cell and
+ * 4 cells per byte, with cell c in bits 2 * (c % 4) of byte c / 4. The bits are the WALL, FLOOR or
+ * MARK byte of the cell, so a file full of zeros is a map full of walls, border included.
+ *
+ * The cells live outside the heap and are paged in and out by the operating system, so a
+ * 20000 x 20000 map takes 100 MB of the page cache instead of 400 MB of heap for the bytes alone.
+ * The mapping stays valid after the file is closed, and reading it is safe from several threads.
+ */
+class MappedGridMap extends GridMap {
+    private final MappedByteBuffer buffer;
+
+    /**
+     * @param width  the width of the map.
+     * @param height the height of the map.
+     * @param file   the file holding the cells, which is overwritten.
+     * @throws IOException if the file cannot be created or mapped.
+     */
+    MappedGridMap(int width, int height, File file) throws IOException {
+        super(width, height);
+        long bytes = (size() + 3L) / 4;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // Start from a map full of walls, whatever the file held before.
+            raf.setLength(0);
+            raf.setLength(bytes);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Override
+    byte get(int cell) {
+        return (byte) (buffer.get(cell >>> 2) >>> ((cell & 3) << 1) & 3);
+    }
+
+    @Override
+    void set(int cell, byte value) {
+        int shift = (cell & 3) << 1;
+        int b = buffer.get(cell >>> 2) & ~(3 << shift) | value << shift;
+        buffer.put(cell >>> 2, (byte) b);
+    }
+}
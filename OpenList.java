@@ -0,0 +1,38 @@
+package jp.co.worksap.global;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The OpenList is the open set of the A* search, a priority queue of cell indices.
+ * Cells with a smaller total score come first. If the total score is equal, the cell with the
+ * smaller heuristic value is preferred, since it is probably closer to the target.
+ * Pushing a cell which is already in the list means its score has improved. An implementation may
+ * either move the cell or keep the stale entry, so the caller must skip cells which are already
+ * closed when they are popped.
+ */
+interface OpenList {
+    /**
+     * Remove all the cells. Must be called before every query.
+     */
+    void clear();
+
+    boolean isEmpty();
+
+    /**
+     * Push a cell into the list.
+     *
+     * @param cell    the index of the cell.
+     * @param f_score the total score of the cell.
+     * @param h       the heuristic value of the cell.
+     */
+    void push(int cell, int f_score, int h);
+
+    /**
+     * Remove the cell with the minimum total score, breaking ties on the heuristic value.
+     *
+     * @return the index of the cell.
+     */
+    int pop();
+}
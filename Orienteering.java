@@ -1,6 +1,11 @@
 package jp.co.worksap.global;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 /**
@@ -22,30 +27,207 @@ import java.util.Scanner;
  * which has not been passed, and dynamically calculate the shortest path to that checkpoints using information
  * in the distance matrix and other states. So the time complexity becomes O(n*2^n), for n = 18, it is still
  * acceptable.
+ * Past about 26 checkpoints even two layers of the states do not fit in memory, and the exact answer is
+ * found by a branch and bound search over the orders of the checkpoints instead, see BranchAndBoundSolver.
  */
 public class Orienteering {
-    public static void main(String[] args) {
+    // The size of the maps from which the floods are spread over several threads.
+    private static final int PARALLEL_BFS_CELLS = 1 << 20;
+    // The largest number of checkpoints solved on the flat table, whose n * 2^n ints take 352 MB at 22.
+    private static final int FLAT_DP_CHECKPOINTS = 22;
+    // The largest number of checkpoints solved by dynamic programming, whose two layers take 1 GB at 26.
+    private static final int LAYERED_DP_CHECKPOINTS = 26;
+
+    /**
+     * Create the path finder engine with the given name.
+     *
+     * @param engine  "astar" for plain A*, "bidi" for bidirectional search, "jps" for Jump Point Search,
+     *                "jps+" for JPS+, "hpa" for HPA*, "corridor" for Dijkstra on the contracted corridors,
+     *                "rsr" for A* with Rectangular Symmetry Reduction or "cpd" for the compressed
+     *                path database.
+     * @param grid    the grid map.
+     * @param options the command line options, "jump-table" names the sidecar file of JPS+,
+     *                "cluster-size" and "exact" set up the abstraction of HPA*, "landmarks" switches
+     *                A* to the landmark heuristic with that many landmarks, "cpd" names the file of
+     *                the compressed path database, "corridor-graph" the sidecar file of the corridors.
+     * @return the path finder.
+     * @throws IOException if the sidecar file cannot be read or written.
+     */
+    static PathFinder createPathFinder(String engine, GridMap grid, Map<String, String> options) throws IOException {
+        if (engine.equals("astar")) {
+            AStarPathFinder pathFinder = new AStarPathFinder(grid);
+            if (options.containsKey("landmarks"))
+                pathFinder.setHeuristic(new LandmarkHeuristic(grid, Integer.parseInt(options.get("landmarks"))));
+            return pathFinder;
+        }
+        if (engine.equals("bidi")) {
+            AStarPathFinder pathFinder = new AStarPathFinder(grid);
+            pathFinder.setBidirectional(true);
+            return pathFinder;
+        }
+        if (engine.equals("jps")) return new JumpPointPathFinder(grid);
+        if (engine.equals("jps+")) {
+            if (options.containsKey("jump-table"))
+                return new JumpPointPlusPathFinder(grid, new File(options.get("jump-table")));
+            return new JumpPointPlusPathFinder(grid);
+        }
+        if (engine.equals("hpa")) {
+            int clusterSize = options.containsKey("cluster-size") ? Integer.parseInt(options.get("cluster-size")) : 16;
+            if (clusterSize < 1) {
+                fail("--cluster-size must be at least 1, not " + clusterSize);
+                return null;
+            }
+            // The answer must be exact unless approximate distances are asked for. The exact graph has
+            // a node on every open border cell, so it takes longer to build and each query expands more
+            // nodes than with the approximate one, a few times the time on open maps.
+            boolean exact = !"false".equals(options.get("exact"));
+            return new HierarchicalPathFinder(new HierarchicalGraph(grid, clusterSize, exact));
+        }
+        if (engine.equals("corridor")) return new CorridorPathFinder(createCorridorGraph(grid, options));
+        if (engine.equals("rsr")) return new SymmetryReducedPathFinder(new RectangleDecomposition(grid));
+        if (engine.equals("cpd")) return createPathDatabase(grid, options);
+        throw new IllegalArgumentException("Unknown engine: " + engine);
+    }
+
+    /**
+     * Load the compressed path database of a map from the file given by the "cpd" option, building
+     * and writing it first if needed, or only build it in memory if no file is given.
+     *
+     * @param grid    the grid map.
+     * @param options the command line options.
+     * @return the database.
+     * @throws IOException if the file cannot be read or written.
+     */
+    static CompressedPathDatabase createPathDatabase(GridMap grid, Map<String, String> options) throws IOException {
+        if (options.containsKey("cpd"))
+            return CompressedPathDatabase.loadOrBuild(new File(options.get("cpd")), grid);
+        return CompressedPathDatabase.build(grid);
+    }
+
+    /**
+     * Load the corridor graph of a map from the sidecar file given by the "corridor-graph" option,
+     * building and writing it first if needed, or only build it in memory if no file is given.
+     *
+     * @param grid    the grid map.
+     * @param options the command line options.
+     * @return the graph.
+     * @throws IOException if the file cannot be read or written.
+     */
+    static CorridorGraph createCorridorGraph(GridMap grid, Map<String, String> options) throws IOException {
+        if (options.containsKey("corridor-graph"))
+            return CorridorGraph.loadOrBuild(new File(options.get("corridor-graph")), grid);
+        return new CorridorGraph(grid);
+    }
+
+    /**
+     * Parse options of the form --name=value.
+     *
+     * @param args the command line arguments.
+     * @return the values by name.
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0)
+                throw new IllegalArgumentException("Unknown argument: " + arg);
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+
+    /**
+     * Create the provider of the distance matrix with the given engine name.
+     *
+     * @param engine  "bfs" for one breadth first flood per point, "bitbfs" for the bit-parallel floods,
+     *                "corridor" for one search per point on the contracted corridors, "lpa" for shortest
+     *                path trees which are repaired after edits of the map, "witness" for the floods
+     *                which only compute again the entries whose path an edit may change, or the name
+     *                of a path finder engine to run one query per pair.
+     * @param grid    the grid map.
+     * @param options the command line options, "threads" runs the bfs floods on that many threads,
+     *                "bfs-threads" spreads each flood of a large map over that many threads,
+     *                "corridor-graph" names the sidecar file of the corridors.
+     * @return the distance matrix provider.
+     * @throws IOException if a sidecar file cannot be read or written.
+     */
+    static DistanceMatrixProvider createDistanceMatrixProvider(String engine, GridMap grid,
+                                                               Map<String, String> options) throws IOException {
+        if (engine.equals("bfs") && options.containsKey("threads"))
+            return new ParallelDistanceMatrix(grid, Integer.parseInt(options.get("threads")));
+        if (engine.equals("bfs")) {
+            AStarPathFinder pathFinder = new AStarPathFinder(grid);
+            if (options.containsKey("bfs-threads"))
+                pathFinder.setParallelism(Integer.parseInt(options.get("bfs-threads")), PARALLEL_BFS_CELLS);
+            return pathFinder;
+        }
+        if (engine.equals("bitbfs")) return new BitParallelBfs(grid);
+        if (engine.equals("corridor")) return new CorridorPathFinder(createCorridorGraph(grid, options));
+        if (engine.equals("cpd")) return createPathDatabase(grid, options);
+        if (engine.equals("lpa")) return new IncrementalDistanceMatrix(grid);
+        if (engine.equals("witness")) return new WitnessDistanceMatrix(grid);
+        return new PairwiseDistanceMatrix(createPathFinder(engine, grid, options), grid.width(), grid.height());
+    }
+
+    /**
+     * Options:
+     * --engine=NAME      the engine computing the distance matrix (see createDistanceMatrixProvider),
+     *                    one breadth first flood per point by default.
+     * --jump-table=FILE  the sidecar file keeping the jump table of the map for the jps+ engine.
+     * --cluster-size=N   the size of the clusters of the hpa engine, 16 by default.
+     * --exact=false      let the hpa engine use approximate distances.
+     * --landmarks=N      let the astar engine use the landmark heuristic with N landmarks.
+     * --prune=true       wall up the dead end pockets of the map before any search. Not allowed when
+     *                    edits follow the map.
+     * --cpd=FILE         the file keeping the compressed path database of the map for the cpd engine.
+     * --corridor-graph=FILE
+     *                    the sidecar file keeping the corridor graph of the map for the corridor engine.
+     * --threads=N        run the floods of the bfs engine on N threads.
+     * --bfs-threads=N    spread each flood of the bfs engine over N threads on maps of a million cells or more.
+     * --dp-threads=N     solve the course on N threads, one layer of the dynamic programming at a time.
+     * --mapped=FILE      keep the map in FILE, memory mapped with 2 bits per cell, instead of on the heap.
+     *                    The file is deleted on exit. For maps larger than the heap, together with the
+     *                    bitbfs engine, whose bitsets take about 6 bits per cell; the other engines keep
+     *                    arrays of ints per cell.
+     *
+     * The map may be followed by edits, "block ROW COL" or "unblock ROW COL", and the answer is printed
+     * again after each of them. The lpa and witness engines update their matrix, the others compute it
+     * again. Only the solution on the matrix is run again.
+     *
+     * @param args the options.
+     * @throws IOException if a sidecar file cannot be read or written.
+     */
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        String engine = options.containsKey("engine") ? options.get("engine") : "bfs";
+
         Scanner scanner = new Scanner(System.in);
         int width = scanner.nextInt();
         int height = scanner.nextInt();
-        String[] map = new String[height];
-        for (int i = 0; i < height; i++) {
-            map[i] = scanner.next();
+        // The rows go straight into the storage of the map, which may be larger than the heap.
+        boolean mapped = options.containsKey("mapped");
+        GridMap grid;
+        if (mapped) {
+            File file = new File(options.get("mapped"));
+            file.deleteOnExit();
+            grid = GridMap.map(width, height, file);
+        } else {
+            grid = GridMap.allocate(width, height);
         }
-
-        AStarPathFinder pathFinder = new AStarPathFinder(map, width, height);
         ArrayList<Point> checkPoints = new ArrayList<Point>(40);
         Point start = null, goal = null;
 
         for (int i = 0; i < height; i++) {
+            String row = scanner.next();
+            grid.setRow(i, row);
             for (int j = 0; j < width; j++) {
-                if (map[i].charAt(j) == '@') {
+                if (row.charAt(j) == '@') {
                     checkPoints.add(new Point(i, j));
                 }
-                if (map[i].charAt(j) == 'S') {
+                if (row.charAt(j) == 'S') {
                     start = new Point(i, j);
                 }
-                if (map[i].charAt(j) == 'G') {
+                if (row.charAt(j) == 'G') {
                     goal = new Point(i, j);
                 }
             }
@@ -54,82 +236,125 @@ public class Orienteering {
             System.out.println(-1);
             return;
         }
+        if ("true".equals(options.get("prune"))) {
+            // The pockets are walled up for good, so a cell unblocked later could not reach them.
+            if (scanner.hasNext()) {
+                fail("--prune=true cannot be used when edits follow the map");
+                return;
+            }
+            grid.pruneDeadEnds();
+        }
         int numCheckPoints = checkPoints.size();
-        int[][] distances = new int[numCheckPoints + 2][numCheckPoints + 2];
         checkPoints.add(start);
         checkPoints.add(goal);
 
-        for (int i = 0; i < checkPoints.size() - 1; i++) {
-            for (int j = i + 1; j < checkPoints.size(); j++) {
-                distances[i][j] = pathFinder.getShortestPath(checkPoints.get(i), checkPoints.get(j), width, height);
-                if (distances[i][j] == 0) {
-                    System.out.println(-1);
-                    return;
-                }
-                distances[j][i] = distances[i][j];
-            }
+        // One scan of the map finds unreachable checkpoints before any engine preprocesses the map or
+        // searches it, so the engine is only built for connected points, null otherwise.
+        DistanceMatrixProvider provider = null;
+        int[][] distances = null;
+        if (isConnected(grid, mapped, checkPoints)) {
+            provider = createDistanceMatrixProvider(engine, grid, options);
+            distances = provider.getDistanceMatrix(checkPoints);
         }
+        CourseSolver solver = createCourseSolver(numCheckPoints, options);
+        System.out.println(distances == null ? -1 : solve(distances, numCheckPoints, solver));
 
-        int startIndex = numCheckPoints;
-        int goalIndex = numCheckPoints + 1;
-        int answer = 1 << 30;
-        if (numCheckPoints == 0) {
-            System.out.println(distances[numCheckPoints][numCheckPoints + 1]);
-            return;
-        }
-        int numSelections = 1 << numCheckPoints;
-        // Store all the state information.
-        // For every node, there should be 2^n different states.
-        // The paths means for every possible state, the shortest path for stopping to
-        // stand on the checkpoint.
-        // For example, paths[3][0] means I just made two steps(because 3 is 0b11)
-        // from the start to the checkpoint with index 0,
-        // its value is the shortest path from start to the index 1 checkpoint plus
-        // the shortest path from index 1 to index 0 checkpoint.
-        int[][] paths = new int[numSelections][numCheckPoints];
-        for (int i = 0; i < numSelections; i++) {
-            for (int j = 0; j < numCheckPoints; j++) {
-                paths[i][j] = 1 << 28;
+        // Edits of the map may follow the map, "block ROW COL" or "unblock ROW COL", each answered
+        // with the solution on the edited map.
+        while (scanner.hasNext()) {
+            String command = scanner.next();
+            Point cell = new Point(scanner.nextInt(), scanner.nextInt());
+            if (!command.equals("block") && !command.equals("unblock"))
+                throw new IllegalArgumentException("Unknown edit: " + command);
+            // An index is only checked against the padded map, so check the row and column first.
+            if (cell.row < 0 || cell.row >= height || cell.col < 0 || cell.col >= width) {
+                fail("The cell of \"" + command + " " + cell.row + " " + cell.col + "\" is outside the "
+                        + width + "x" + height + " map");
+                return;
             }
-        }
-        // For every possible state, search from the first checkpoint to the last.
-        // Then we can get all the Node<->State pairs.
-        for (int selection = 1; selection < numSelections; selection++) {
-            for (int i = 0; i < numCheckPoints; i++) {
-                // Not standing on this checkpoint, so just ignore and continue.
-                if ((selection & (1 << i)) == 0) continue;
-                // Get the checkpoints which have already been passed.
-                int subset = selection - (1 << i);
-                // Case one: just made one step.
-                if (subset == 0) {
-                    paths[selection][i] = distances[startIndex][i];
-                    continue;
-                }
-                // Case two: more than one steps made.
-                // For each of the checkpoint passed, if the path value of
-                // that point plus the distance from that point to the current one
-                // is less than the current value, then update it.
-                // The equation is: paths[state][i] = min(paths[state_i][i], paths[state_j][j] + dist[j][i]).
-                // state_j means the state that we are standing on j and have passed all the checkpoints
-                // stated in state_i except i itself, dist[j][i] is the shortest path from j to i.
-                for (int j = 0; j < numCheckPoints; j++) {
-                    if ((selection & (1 << j)) != 0
-                            && i != j) {
-                        paths[selection][i] = Math.min(
-                                paths[selection][i],
-                                paths[subset][j] + distances[j][i]
-                        );
-                    }
+            if (grid.isMarked(grid.index(cell))) {
+                fail("The cell of \"" + command + " " + cell.row + " " + cell.col
+                        + "\" is a checkpoint, the start or the goal, which cannot be edited");
+                return;
+            }
+            if (provider instanceof DynamicDistanceMatrix) {
+                DynamicDistanceMatrix dynamic = (DynamicDistanceMatrix) provider;
+                if (command.equals("block")) dynamic.blockCell(cell);
+                else dynamic.unblockCell(cell);
+                distances = dynamic.getDistanceMatrix();
+            } else {
+                if (command.equals("block")) grid.block(grid.index(cell));
+                else grid.unblock(grid.index(cell));
+                // Engines may have preprocessed the map, start them again on the edited one, once
+                // the points are connected.
+                provider = null;
+                distances = null;
+                if (isConnected(grid, mapped, checkPoints)) {
+                    provider = createDistanceMatrixProvider(engine, grid, options);
+                    distances = provider.getDistanceMatrix(checkPoints);
                 }
             }
+            System.out.println(distances == null ? -1 : solve(distances, numCheckPoints, solver));
         }
+    }
 
-        // Then we check the state of all 1s and decide which is the best path according to
-        // the addition of the path value and distance from the finally standing point to the goal.
-        for (int i = 0; i < numCheckPoints; i++) {
-            answer = Math.min(answer,
-                    paths[numSelections - 1][i] + distances[i][goalIndex]);
+    /**
+     * Check with one scan of the map that the points may be connected. The label per cell of the
+     * scan does not fit next to a mapped map, where the searches find unreachable points instead.
+     *
+     * @param grid   the grid map.
+     * @param mapped whether the map is memory mapped.
+     * @param points the checkpoints, the start and the goal.
+     * @return false if some of the points are certainly not connected.
+     */
+    static boolean isConnected(GridMap grid, boolean mapped, List<Point> points) {
+        return mapped || new GridComponents(grid).isConnected(points);
+    }
+
+    /**
+     * Report invalid input on the standard error and exit with a failure status.
+     *
+     * @param message what is wrong with the input.
+     */
+    static void fail(String message) {
+        System.err.println(message);
+        System.exit(1);
+    }
+
+    /**
+     * Solve the orienteering problem on a distance matrix.
+     *
+     * @param distances      the distance matrix of the checkpoints, then the start, then the goal.
+     * @param numCheckPoints the number of checkpoints.
+     * @param solver         the solver of the course.
+     * @return the length of the shortest walk from start to goal through all the checkpoints,
+     * or -1 if some of them are not connected.
+     */
+    static int solve(int[][] distances, int numCheckPoints, CourseSolver solver) {
+        for (int i = 0; i < distances.length - 1; i++) {
+            for (int j = i + 1; j < distances.length; j++) {
+                if (distances[i][j] == 0) {
+                    return -1;
+                }
+            }
         }
-        System.out.println(answer);
+
+        return solver.solve(distances, numCheckPoints);
+    }
+
+    /**
+     * Choose the solver of the course by the number of checkpoints.
+     *
+     * @param numCheckPoints the number of checkpoints.
+     * @param options        the command line options, "dp-threads" computes the layers on that many threads.
+     * @return the dynamic programming on the flat table while it fits on the heap, on two layers
+     * at a time above or when it runs on several threads, and branch and bound past that.
+     */
+    static CourseSolver createCourseSolver(int numCheckPoints, Map<String, String> options) {
+        if (numCheckPoints > LAYERED_DP_CHECKPOINTS) return new BranchAndBoundSolver();
+        if (options.containsKey("dp-threads"))
+            return new ParallelHeldKarpSolver(Integer.parseInt(options.get("dp-threads")));
+        if (numCheckPoints > FLAT_DP_CHECKPOINTS) return new LayeredHeldKarpSolver();
+        return new HeldKarpSolver(false);
     }
 }
@@ -0,0 +1,39 @@
+package jp.co.worksap.global;
+
+import java.util.List;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The PairwiseDistanceMatrix computes the distance matrix with one query of a PathFinder for
+ * every pair of points. It is the way to use the single pair engines for Orienteering.
+ */
+public class PairwiseDistanceMatrix implements DistanceMatrixProvider {
+    private PathFinder pathFinder;
+    private int width, height;
+
+    /**
+     * @param pathFinder the engine answering the queries.
+     * @param width      the width of the map.
+     * @param height     the height of the map.
+     */
+    public PairwiseDistanceMatrix(PathFinder pathFinder, int width, int height) {
+        this.pathFinder = pathFinder;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        int[][] distances = new int[points.size()][points.size()];
+        for (int i = 0; i < points.size() - 1; i++) {
+            for (int j = i + 1; j < points.size(); j++) {
+                distances[i][j] = pathFinder.getShortestPath(points.get(i), points.get(j), width, height);
+                distances[j][i] = distances[i][j];
+            }
+        }
+        return distances;
+    }
+}
@@ -0,0 +1,294 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The ParallelBfs is a level synchronous breadth first search which spreads every layer over
+ * several threads, for single sources on very large maps where one layer holds many cells.
+ *
+ * Each layer is cut into chunks of CHUNK cells run as tasks of a ForkJoinPool, and every chunk
+ * writes the cells it labels into its own buffer. When all the chunks are done the buffers are
+ * concatenated into the next layer. A cell is claimed by setting its bit in a visited bitset with
+ * a compare and set, so only one thread labels it, whichever gets there first; the distance is the
+ * same for all of them.
+ *
+ * The search is direction optimizing. Top down, the chunks are cells of the layer, which try to
+ * claim their neighbors. When the layer gets large next to the cells left, bottom up is cheaper:
+ * the chunks are ranges of the map, and each cell not visited yet looks whether one of its
+ * neighbors is in the last layer. It then claims only itself, so there is no contention at all.
+ * Whole words of visited cells are skipped.
+ *
+ * The field of distances is allocated once and reused by every search, like the arrays of a
+ * SearchWorkspace. Instead of a stamp next to each value, the generation is folded into the value:
+ * a search stores base + distance, and the next search starts its base past the largest value
+ * stored, so anything smaller than the current base is left from an earlier search. One int read
+ * tells both whether a cell is labelled and its distance, even while another task labels it.
+ * The workers are those of the WorkerPools pool for the number of threads.
+ */
+public class ParallelBfs {
+    // The number of cells of a task.
+    private static final int CHUNK = 4096;
+    // Go bottom up when the layer is larger than this fraction of the free cells not visited yet.
+    private static final int ALPHA = 14;
+    // Go top down again when the layer is smaller than this fraction of all the free cells.
+    private static final int BETA = 24;
+
+    private GridMap grid;
+    private int[] neighbors;
+    private int freeCount;
+    private ForkJoinPool pool;
+    private AtomicLongArray visited;
+    private int[] layer;
+    private int layerSize;
+    // The output buffers of the tasks of a layer and the number of cells in each.
+    private int[][] buffers = new int[0][];
+    private int[] counts = new int[0];
+    // The distance of every cell labelled by the current search plus base, smaller values for the others.
+    private int[] field;
+    private int base;
+    private int depth;
+
+    /**
+     * @param grid    the grid map.
+     * @param threads the number of worker threads.
+     */
+    public ParallelBfs(GridMap grid, int threads) {
+        this.grid = grid;
+        neighbors = grid.neighborOffsets();
+        pool = WorkerPools.get(threads);
+        visited = new AtomicLongArray((grid.size() + 63) >>> 6);
+        layer = new int[grid.size()];
+        field = new int[grid.size()];
+        Arrays.fill(field, -1);
+        for (int cell = 0; cell < grid.size(); cell++) {
+            if (grid.isFree(cell)) freeCount++;
+        }
+    }
+
+    /**
+     * Compute the distance from the source to every cell of the map.
+     *
+     * @param source the source of the field.
+     * @return the distances indexed by the cells of the GridMap, -1 for cells which are not reachable.
+     */
+    public int[] getDistanceField(Point source) {
+        search(source, new ArrayList<Point>());
+        int[] distances = new int[grid.size()];
+        for (int cell = 0; cell < distances.length; cell++) {
+            distances[cell] = field[cell] >= base ? field[cell] - base : -1;
+        }
+        return distances;
+    }
+
+    /**
+     * Compute the distances from the source to some targets, stopping after the layer in which the
+     * last of them is found.
+     *
+     * @param source  the source.
+     * @param targets the points whose distances are wanted.
+     * @return the distances of the targets, 0 for those which are not reachable.
+     */
+    public int[] getDistances(Point source, List<Point> targets) {
+        search(source, targets);
+        int[] found = new int[targets.size()];
+        for (int t = 0; t < found.length; t++) {
+            found[t] = Math.max(0, field[grid.index(targets.get(t))] - base);
+        }
+        return found;
+    }
+
+    /**
+     * Run the search layer by layer. The distance of a cell labelled is field[cell] - base.
+     *
+     * @param source  the source.
+     * @param targets stop once all of them are labelled, or search the whole component if empty.
+     */
+    private void search(Point source, List<Point> targets) {
+        // Start past the values of the last search, whose distances are all below its depth.
+        base += depth;
+        if (base > Integer.MAX_VALUE - grid.size()) {
+            // The values would wrap around, so clear the field once in a long while.
+            Arrays.fill(field, -1);
+            base = 0;
+        }
+        for (int w = 0; w < visited.length(); w++) visited.set(w, 0);
+        int start = grid.index(source);
+        claim(start);
+        field[start] = base;
+        layer[0] = start;
+        layerSize = 1;
+        int unvisited = freeCount - 1;
+        boolean bottomUp = false;
+
+        for (depth = 1; layerSize > 0 && !allFound(targets); depth++) {
+            if (!bottomUp && (long) layerSize * ALPHA > unvisited) bottomUp = true;
+            else if (bottomUp && (long) layerSize * BETA < freeCount) bottomUp = false;
+
+            int tasks = bottomUp ? (grid.size() + CHUNK - 1) / CHUNK : (layerSize + CHUNK - 1) / CHUNK;
+            if (buffers.length < tasks) {
+                buffers = Arrays.copyOf(buffers, tasks);
+                counts = new int[tasks];
+            }
+            pool.invoke(new Chunks(0, tasks, bottomUp));
+
+            layerSize = 0;
+            for (int k = 0; k < tasks; k++) {
+                System.arraycopy(buffers[k], 0, layer, layerSize, counts[k]);
+                layerSize += counts[k];
+            }
+            unvisited -= layerSize;
+        }
+    }
+
+    /**
+     * @return whether the targets are all labelled, false if there are none.
+     */
+    private boolean allFound(List<Point> targets) {
+        if (targets.isEmpty())
+            return false;
+        for (Point target : targets) {
+            if (field[grid.index(target)] < base)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Set the visited bit of a cell.
+     *
+     * @return true if this call set it, false if it was already set.
+     */
+    private boolean claim(int cell) {
+        int w = cell >>> 6;
+        long bit = 1L << cell;
+        while (true) {
+            long old = visited.get(w);
+            if ((old & bit) != 0)
+                return false;
+            if (visited.compareAndSet(w, old, old | bit))
+                return true;
+        }
+    }
+
+    /**
+     * Top down: label the unvisited neighbors of the cells of the layer from first to last.
+     */
+    private int expand(int first, int last, int[] out) {
+        int count = 0;
+        for (int i = first; i < last; i++) {
+            int cur = layer[i];
+            for (int offset : neighbors) {
+                int next = cur + offset;
+                if (grid.isFree(next) && (visited.get(next >>> 6) & 1L << next) == 0 && claim(next)) {
+                    field[next] = base + depth;
+                    out[count++] = next;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Bottom up: label the unvisited cells from first to last which have a neighbor in the layer.
+     */
+    private int gather(int first, int last, int[] out) {
+        int count = 0;
+        int previous = base + depth - 1;
+        for (int cell = first; cell < last; cell++) {
+            long bits = visited.get(cell >>> 6);
+            if (bits == -1L) {
+                // The rest of the word is visited.
+                cell |= 63;
+                continue;
+            }
+            if ((bits & 1L << cell) != 0 || !grid.isFree(cell))
+                continue;
+            for (int offset : neighbors) {
+                // A neighbor being labelled by another task reads as either value, and neither is
+                // the last layer.
+                if (field[cell + offset] == previous) {
+                    // Cells of this range are only claimed by this task.
+                    claim(cell);
+                    field[cell] = base + depth;
+                    out[count++] = cell;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The chunks of a layer, split in halves down to single chunks.
+     */
+    private class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int from, to;
+        private boolean bottomUp;
+
+        Chunks(int from, int to, boolean bottomUp) {
+            this.from = from;
+            this.to = to;
+            this.bottomUp = bottomUp;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Chunks(from, middle, bottomUp), new Chunks(middle, to, bottomUp));
+                return;
+            }
+            // A chunk labels at most 4 cells per cell of the layer, or each of its own cells once.
+            if (buffers[from] == null) buffers[from] = new int[CHUNK * 4];
+            int first = from * CHUNK;
+            if (bottomUp) {
+                counts[from] = gather(first, Math.min(first + CHUNK, grid.size()), buffers[from]);
+            } else {
+                counts[from] = expand(first, Math.min(first + CHUNK, layerSize), buffers[from]);
+            }
+        }
+    }
+
+    /**
+     * Compare the distance fields with BitParallelBfs on large maps of the MapGenerator.
+     *
+     * @param args the number of threads, all the available processors by default.
+     */
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int size = 2000;
+        MapGenerator generator = new MapGenerator(size, size);
+        long sequentialTime = 0, parallelTime = 0;
+        for (int m = 0; m < 3; m++) {
+            GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+            Point source = null;
+            for (int cell = 0; cell < grid.size() && source == null; cell++) {
+                if (grid.isMarked(cell)) source = grid.toPoint(cell);
+            }
+            ParallelBfs parallel = new ParallelBfs(grid, threads);
+            BitParallelBfs bits = new BitParallelBfs(grid);
+            long t0 = System.nanoTime();
+            int[] expected = bits.getDistanceField(source);
+            long t1 = System.nanoTime();
+            int[] actual = parallel.getDistanceField(source);
+            long t2 = System.nanoTime();
+            if (!Arrays.equals(expected, actual))
+                throw new IllegalStateException("Different distance fields");
+            sequentialTime += t1 - t0;
+            parallelTime += t2 - t1;
+        }
+        System.out.println("Bit-parallel: " + sequentialTime / 1000000 + " ms, " + threads + " threads: "
+                + parallelTime / 1000000 + " ms");
+    }
+}
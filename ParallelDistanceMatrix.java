@@ -0,0 +1,131 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The ParallelDistanceMatrix runs the breadth first floods of AStarPathFinder.getDistanceMatrix
+ * on all the cores. The flood of each source is independent of the others, so the sources are
+ * split in halves recursively on a ForkJoinPool, whose idle workers steal the halves not started
+ * yet. A task borrows an AStarPathFinder from the idle finders of the provider, or creates one if
+ * there is none, and gives it back when its floods are done, so no two threads share a workspace
+ * while the GridMap is shared and only read. The pool is the one of WorkerPools for the number of
+ * threads, so the providers created after edits of the map reuse it, but the finders belong to the
+ * provider, so their workspaces are dropped with it instead of staying with the workers.
+ *
+ * Each entry of the matrix is written by the one task of its source, with the same flood as the
+ * sequential version, so the result is the same whatever the number of threads and the schedule.
+ */
+public class ParallelDistanceMatrix implements DistanceMatrixProvider {
+    private GridMap grid;
+    private ForkJoinPool pool;
+    private GridComponents components;
+    // The finders not used by a task at the moment, about one per worker thread in the end.
+    private ConcurrentLinkedQueue<AStarPathFinder> finders = new ConcurrentLinkedQueue<AStarPathFinder>();
+
+    /**
+     * @param grid    the grid map.
+     * @param threads the number of worker threads.
+     */
+    public ParallelDistanceMatrix(GridMap grid, int threads) {
+        this.grid = grid;
+        pool = WorkerPools.get(threads);
+    }
+
+    /**
+     * Let the floods skip the targets in other components, see AStarPathFinder.setComponents.
+     * Must be called before the first matrix is computed.
+     *
+     * @param components the connected components of the map.
+     */
+    public void setComponents(GridComponents components) {
+        this.components = components;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        int n = points.size();
+        int[][] distances = new int[n][n];
+        pool.invoke(new Sources(points, distances, 0, n - 1));
+        return distances;
+    }
+
+    /**
+     * The floods of a range of sources.
+     */
+    private class Sources extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private List<Point> points;
+        private int[][] distances;
+        private int from, to;
+
+        Sources(List<Point> points, int[][] distances, int from, int to) {
+            this.points = points;
+            this.distances = distances;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Sources(points, distances, from, middle), new Sources(points, distances, middle, to));
+                return;
+            }
+            AStarPathFinder finder = finders.poll();
+            if (finder == null) {
+                finder = new AStarPathFinder(grid);
+                finder.setComponents(components);
+            }
+            int n = points.size();
+            for (int i = from; i < to; i++) {
+                int[] found = finder.getDistances(points.get(i), points.subList(i + 1, n));
+                for (int j = i + 1; j < n; j++) {
+                    distances[i][j] = found[j - i - 1];
+                    distances[j][i] = found[j - i - 1];
+                }
+            }
+            finders.offer(finder);
+        }
+    }
+
+    /**
+     * Compare with the sequential floods on large maps of the MapGenerator.
+     *
+     * @param args the number of threads, all the available processors by default.
+     */
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int size = 1500;
+        MapGenerator generator = new MapGenerator(size, size);
+        long sequentialTime = 0, parallelTime = 0;
+        for (int m = 0; m < 3; m++) {
+            GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+            List<Point> points = new ArrayList<Point>();
+            for (int cell = 0; cell < grid.size(); cell++) {
+                if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+            }
+            long t0 = System.nanoTime();
+            int[][] expected = new AStarPathFinder(grid).getDistanceMatrix(points);
+            long t1 = System.nanoTime();
+            int[][] actual = new ParallelDistanceMatrix(grid, threads).getDistanceMatrix(points);
+            long t2 = System.nanoTime();
+            if (!Arrays.deepEquals(expected, actual))
+                throw new IllegalStateException("Different distance matrices");
+            sequentialTime += t1 - t0;
+            parallelTime += t2 - t1;
+        }
+        System.out.println("Sequential: " + sequentialTime / 1000000 + " ms, " + threads + " threads: "
+                + parallelTime / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,101 @@
+package jp.co.worksap.global;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The ParallelHeldKarpSolver computes each layer of the LayeredHeldKarpSolver on several threads.
+ *
+ * The selections of one layer only read the layer before, so they are independent of each other.
+ * A layer is cut into chunks of CHUNK consecutive ranks, run as tasks of a ForkJoinPool split in
+ * halves like the chunks of ParallelBfs. Each task finds the mask of its first rank by unranking it
+ * and goes on with Gosper's hack. The pool is invoked once per layer, which is the barrier: the next
+ * layer only starts when all the chunks of this one are done. The pool is the one of WorkerPools
+ * for the number of threads, shared with the other parallel engines and with the solves after
+ * edits of the map.
+ *
+ * Every value is written by the one task of its selection, with the same minimum over the same
+ * predecessors as the sequential solver, so the answer does not depend on the number of threads.
+ */
+public class ParallelHeldKarpSolver extends LayeredHeldKarpSolver {
+    // The number of selections of a task.
+    private static final int CHUNK = 2048;
+
+    private ForkJoinPool pool;
+
+    /**
+     * @param threads the number of worker threads.
+     */
+    public ParallelHeldKarpSolver(int threads) {
+        pool = WorkerPools.get(threads);
+    }
+
+    @Override
+    void computeLayer(int n, int k, int[] dist, int[] previous, int[] current) {
+        int tasks = (layerSize(n, k) + CHUNK - 1) / CHUNK;
+        pool.invoke(new Chunks(n, k, dist, previous, current, 0, tasks));
+    }
+
+    /**
+     * The chunks of a layer, split in halves down to single chunks.
+     */
+    private static class Chunks extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int n, k;
+        private int[] dist, previous, current;
+        private int from, to;
+
+        Chunks(int n, int k, int[] dist, int[] previous, int[] current, int from, int to) {
+            this.n = n;
+            this.k = k;
+            this.dist = dist;
+            this.previous = previous;
+            this.current = current;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Chunks(n, k, dist, previous, current, from, middle),
+                        new Chunks(n, k, dist, previous, current, middle, to));
+                return;
+            }
+            int first = from * CHUNK;
+            computeRange(n, k, dist, previous, current, first, Math.min(first + CHUNK, layerSize(n, k)));
+        }
+    }
+
+    /**
+     * Compare with the sequential layers on random matrices of 18 to 24 checkpoints.
+     *
+     * @param args the number of threads, all the available processors by default, and the largest
+     *             number of checkpoints.
+     */
+    public static void main(String[] args) {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int largest = args.length > 1 ? Integer.parseInt(args[1]) : 24;
+        Random rand = new Random(24);
+        ParallelHeldKarpSolver parallel = new ParallelHeldKarpSolver(threads);
+        for (int n = 18; n <= largest; n++) {
+            int[][] distances = HeldKarpSolver.randomDistances(n, rand);
+            long t0 = System.nanoTime();
+            int expected = new LayeredHeldKarpSolver().solve(distances, n);
+            long t1 = System.nanoTime();
+            int actual = parallel.solve(distances, n);
+            long t2 = System.nanoTime();
+            if (actual != expected)
+                throw new IllegalStateException("Different answers");
+            System.out.println("n = " + n + ": sequential " + (t1 - t0) / 1000000 + " ms, " + threads + " threads "
+                    + (t2 - t1) / 1000000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package jp.co.worksap.global;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The PathFinder is the common contract of the shortest path engines on the grid map,
+ * so that Orienteering can switch between them.
+ */
+public interface PathFinder {
+    /**
+     * Shortest path generating function.
+     *
+     * @param start  the Point of start.
+     * @param goal   the Point of the goal.
+     * @param width  the width of the map.
+     * @param height the height of the map.
+     * @return the shortest path from start to goal or 0 if no path exists.
+     */
+    int getShortestPath(Point start, Point goal, int width, int height);
+}
@@ -0,0 +1,104 @@
+package jp.co.worksap.global;
+
+import java.util.Arrays;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The RectangleDecomposition splits the free cells of a map into empty rectangles, the
+ * preprocessing of Rectangular Symmetry Reduction (RSR).
+ * Inside an empty rectangle every shortest path between two cells is just as long as the manhattan
+ * distance, and there are many of them, which A* all tries. RSR keeps only the perimeter of each
+ * rectangle: a path entering a rectangle can walk along the perimeter and cross the rectangle with
+ * one macro edge straight to the opposite side, always as short as through the interior.
+ *
+ * The rectangles are grown greedily: scanning the map row by row, each free cell not yet covered
+ * is the top left corner of a new rectangle. Of the rectangles of free cells not covered yet which
+ * have that corner, the one with the largest interior is taken. If none has an interior, the cell
+ * makes a rectangle on its own, rather than a thin strip which could cut through a room below.
+ *
+ * The decomposition only depends on the map, so it is built once and shared by all the queries.
+ */
+public class RectangleDecomposition {
+    final GridMap grid;
+    // The rectangle of every cell, -1 for walls.
+    final int[] rectOf;
+    // The first and last row and column of every rectangle, inclusive.
+    int[] top, left, bottom, right;
+    // Whether a cell is strictly inside its rectangle, off the perimeter.
+    final boolean[] interior;
+    private int interiorCount;
+
+    /**
+     * Decompose a map.
+     *
+     * @param grid the grid map.
+     */
+    public RectangleDecomposition(GridMap grid) {
+        this.grid = grid;
+        rectOf = new int[grid.size()];
+        interior = new boolean[grid.size()];
+        Arrays.fill(rectOf, -1);
+        IntList tops = new IntList(), lefts = new IntList(), bottoms = new IntList(), rights = new IntList();
+
+        for (int row = 0; row < grid.height(); row++) {
+            for (int col = 0; col < grid.width(); col++) {
+                if (!isOpen(grid.index(row, col)))
+                    continue;
+                // Try every width, the height shrinks as the rectangle gets wider. Keep the one with
+                // the largest interior, or the cell alone if none has an interior.
+                int last = col, lastRow = row, best = 0, height = grid.height() - row;
+                for (int c = col; c < grid.width() && isOpen(grid.index(row, c)); c++) {
+                    int run = 1;
+                    while (run < height && isOpen(grid.index(row + run, c))) run++;
+                    height = run;
+                    if ((c - col - 1) * (height - 2) > best) {
+                        best = (c - col - 1) * (height - 2);
+                        last = c;
+                        lastRow = row + height - 1;
+                    }
+                }
+
+                int rect = tops.size;
+                tops.add(row); lefts.add(col); bottoms.add(lastRow); rights.add(last);
+                for (int r = row; r <= lastRow; r++) {
+                    for (int c = col; c <= last; c++) {
+                        int cell = grid.index(r, c);
+                        rectOf[cell] = rect;
+                        if (r > row && r < lastRow && c > col && c < last) {
+                            interior[cell] = true;
+                            interiorCount++;
+                        }
+                    }
+                }
+            }
+        }
+        top = Arrays.copyOf(tops.values, tops.size);
+        left = Arrays.copyOf(lefts.values, lefts.size);
+        bottom = Arrays.copyOf(bottoms.values, bottoms.size);
+        right = Arrays.copyOf(rights.values, rights.size);
+    }
+
+    /**
+     * @return true if the cell is free and not covered by a rectangle yet.
+     */
+    private boolean isOpen(int cell) {
+        return grid.isFree(cell) && rectOf[cell] < 0;
+    }
+
+    /**
+     * @return the number of rectangles.
+     */
+    public int rectangleCount() {
+        return top.length;
+    }
+
+    /**
+     * @return the number of cells pruned from the searches, those strictly inside their rectangle.
+     */
+    public int interiorCount() {
+        return interiorCount;
+    }
+}
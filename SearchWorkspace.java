@@ -0,0 +1,126 @@
+package jp.co.worksap.global;
+
+import java.util.Arrays;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The SearchWorkspace keeps all the per cell state of a search in preallocated primitive arrays,
+ * so that one workspace can serve any number of queries on the same map without allocating.
+ * Cells are identified by their index on the map.
+ *
+ * Instead of clearing the arrays before every query, each query gets a new generation number.
+ * A cell whose stamp is not the current generation has not been touched by the current query,
+ * whatever its other arrays contain. So resetting the workspace costs O(1) instead of O(W*H).
+ */
+class SearchWorkspace {
+    // The cell has been reached and is waiting in the open set.
+    static final byte OPEN = 1;
+    // The cell has been expanded and its g_score is final.
+    static final byte CLOSED = 2;
+
+    // The cost from the start to the cell.
+    final int[] gScore;
+    // The cell from which the cell was reached, or -1 for the start.
+    final int[] parent;
+    // Queue buffer for breadth first floods, large enough to hold every cell once.
+    final int[] queue;
+
+    private final byte[] state;
+    private final int[] stamp;
+    private final int[] targetStamp;
+    private int generation;
+
+    /**
+     * Construct a workspace for a map.
+     *
+     * @param size the number of cells on the map.
+     */
+    public SearchWorkspace(int size) {
+        gScore = new int[size];
+        parent = new int[size];
+        queue = new int[size];
+        state = new byte[size];
+        stamp = new int[size];
+        targetStamp = new int[size];
+        generation = 0;
+    }
+
+    /**
+     * Forget everything about the previous query. Must be called before every query.
+     */
+    public void reset() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            // The stamps would wrap around, so clear them once every 2^31 queries.
+            Arrays.fill(stamp, 0);
+            Arrays.fill(targetStamp, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * @return the number of cells the workspace can hold.
+     */
+    public int size() {
+        return stamp.length;
+    }
+
+    /**
+     * @param cell the index of the cell.
+     * @return whether the cell has been reached by the current query.
+     */
+    public boolean isVisited(int cell) {
+        return stamp[cell] == generation;
+    }
+
+    /**
+     * @param cell the index of the cell.
+     * @return whether the cell has been expanded by the current query.
+     */
+    public boolean isClosed(int cell) {
+        return stamp[cell] == generation && state[cell] == CLOSED;
+    }
+
+    /**
+     * Record that the cell has been reached with a new cost.
+     *
+     * @param cell   the index of the cell.
+     * @param g      the cost from the start to the cell.
+     * @param parent the cell it was reached from, or -1 for the start.
+     */
+    public void open(int cell, int g, int parent) {
+        stamp[cell] = generation;
+        state[cell] = OPEN;
+        gScore[cell] = g;
+        this.parent[cell] = parent;
+    }
+
+    /**
+     * Record that the cell has been expanded.
+     *
+     * @param cell the index of the cell.
+     */
+    public void close(int cell) {
+        state[cell] = CLOSED;
+    }
+
+    /**
+     * Mark the cell as one of the targets of the current query.
+     *
+     * @param cell the index of the cell.
+     */
+    public void markTarget(int cell) {
+        targetStamp[cell] = generation;
+    }
+
+    /**
+     * @param cell the index of the cell.
+     * @return whether the cell has been marked as a target by the current query.
+     */
+    public boolean isTarget(int cell) {
+        return targetStamp[cell] == generation;
+    }
+}
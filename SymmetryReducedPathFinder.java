@@ -0,0 +1,197 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The SymmetryReducedPathFinder runs A* with Rectangular Symmetry Reduction on a RectangleDecomposition.
+ * Cells strictly inside a rectangle are never generated. A perimeter cell has as successors its
+ * neighbors on the map, which are all perimeter cells as well, and one macro edge straight across
+ * its rectangle to the opposite side. The start, if it is inside a rectangle, gets the four
+ * perimeter cells straight from it as successors, and the goal, if it is inside, is a successor of
+ * the four perimeter cells straight from it. Start and goal in the same rectangle are joined
+ * directly. Every path through a rectangle can be replaced by one along its perimeter and across
+ * it of the same length, so the lengths are those of A*.
+ *
+ * The edges have different costs, so the heuristic is the manhattan distance, which never
+ * overestimates on a 4-connected grid and is consistent with the macro edges.
+ */
+public class SymmetryReducedPathFinder implements PathFinder {
+    private RectangleDecomposition rectangles;
+    private GridMap grid;
+    private SearchWorkspace workspace;
+    private OpenList openSet;
+    // The number of cells expanded by the last query.
+    private int expanded;
+
+    /**
+     * @param rectangles the decomposition of the map, which may be shared with other finders.
+     */
+    public SymmetryReducedPathFinder(RectangleDecomposition rectangles) {
+        this.rectangles = rectangles;
+        grid = rectangles.grid;
+        workspace = new SearchWorkspace(grid.size());
+        openSet = new BinaryHeapOpenList();
+    }
+
+    /**
+     * @return the number of cells expanded by the last query.
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    @Override
+    public int getShortestPath(Point start, Point goal, int width, int height) {
+        int from = grid.index(start);
+        int to = grid.index(goal);
+        workspace.reset();
+        openSet.clear();
+        expanded = 0;
+        int goalRow = goal.row, goalCol = goal.col;
+        int goalRect = rectangles.interior[to] ? rectangles.rectOf[to] : -1;
+        int[] neighbors = grid.neighborOffsets();
+
+        workspace.open(from, 0, -1);
+        int h = Math.abs(start.row - goalRow) + Math.abs(start.col - goalCol);
+        openSet.push(from, h, h);
+
+        while (!openSet.isEmpty()) {
+            int cur = openSet.pop();
+            if (workspace.isClosed(cur))
+                continue;
+            int g = workspace.gScore[cur];
+            if (cur == to) {
+                return g;
+            }
+            workspace.close(cur);
+            expanded++;
+            int rect = rectangles.rectOf[cur];
+            int row = grid.row(cur), col = grid.col(cur);
+            int top = rectangles.top[rect], left = rectangles.left[rect];
+            int bottom = rectangles.bottom[rect], right = rectangles.right[rect];
+
+            if (rectangles.interior[cur]) {
+                // Only the start can be expanded inside a rectangle.
+                relax(grid.index(top, col), g + row - top, cur, goalRow, goalCol);
+                relax(grid.index(bottom, col), g + bottom - row, cur, goalRow, goalCol);
+                relax(grid.index(row, left), g + col - left, cur, goalRow, goalCol);
+                relax(grid.index(row, right), g + right - col, cur, goalRow, goalCol);
+                if (rectangles.rectOf[to] == rect) {
+                    relax(to, g + Math.abs(row - goalRow) + Math.abs(col - goalCol), cur, goalRow, goalCol);
+                }
+                continue;
+            }
+
+            for (int offset : neighbors) {
+                int next = cur + offset;
+                if (grid.isFree(next) && !rectangles.interior[next]) {
+                    relax(next, g + 1, cur, goalRow, goalCol);
+                }
+            }
+            // The macro edge across the rectangle, only from the sides and if there is an interior.
+            if (bottom - top >= 2 && right - left >= 2) {
+                if (row > top && row < bottom) {
+                    if (col == left) relax(grid.index(row, right), g + right - left, cur, goalRow, goalCol);
+                    if (col == right) relax(grid.index(row, left), g + right - left, cur, goalRow, goalCol);
+                }
+                if (col > left && col < right) {
+                    if (row == top) relax(grid.index(bottom, col), g + bottom - top, cur, goalRow, goalCol);
+                    if (row == bottom) relax(grid.index(top, col), g + bottom - top, cur, goalRow, goalCol);
+                }
+            }
+            // The goal inside this rectangle, straight from the side.
+            if (rect == goalRect && ((row == goalRow && (col == left || col == right))
+                    || (col == goalCol && (row == top || row == bottom)))) {
+                relax(to, g + Math.abs(row - goalRow) + Math.abs(col - goalCol), cur, goalRow, goalCol);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Open a cell if the path found is shorter than the one known.
+     */
+    private void relax(int cell, int g, int parent, int goalRow, int goalCol) {
+        if (workspace.isClosed(cell))
+            return;
+        if (!workspace.isVisited(cell) || g < workspace.gScore[cell]) {
+            workspace.open(cell, g, parent);
+            int h = Math.abs(grid.row(cell) - goalRow) + Math.abs(grid.col(cell) - goalCol);
+            openSet.push(cell, g + h, h);
+        }
+    }
+
+    /**
+     * Compare with plain A* and JPS on maps of the MapGenerator, as generated and with rooms
+     * cleared of walls. The path lengths must agree, the numbers of expanded cells are printed.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = 300;
+        MapGenerator generator = new MapGenerator(size, size);
+        Random rand = new Random(size);
+        for (int kind = 0; kind < 2; kind++) {
+            long astarExpanded = 0, jpsExpanded = 0, rsrExpanded = 0;
+            long astarTime = 0, jpsTime = 0, rsrTime = 0, buildTime = 0, interior = 0;
+            for (int m = 0; m < 5; m++) {
+                String[] map = generator.generate();
+                for (int room = 0; kind == 1 && room < 40; room++) {
+                    // Clear the walls of a room, keeping the checkpoints.
+                    int row = 1 + rand.nextInt(size - 42), col = 1 + rand.nextInt(size - 42);
+                    int h = 10 + rand.nextInt(30), w = 10 + rand.nextInt(30);
+                    for (int r = row; r < row + h; r++) {
+                        StringBuilder line = new StringBuilder(map[r]);
+                        for (int c = col; c < col + w; c++) {
+                            if (line.charAt(c) == '#') line.setCharAt(c, '.');
+                        }
+                        map[r] = line.toString();
+                    }
+                }
+                GridMap grid = GridMap.fromRows(map, size, size);
+                long t0 = System.nanoTime();
+                RectangleDecomposition rectangles = new RectangleDecomposition(grid);
+                buildTime += System.nanoTime() - t0;
+                interior += rectangles.interiorCount();
+                AStarPathFinder astar = new AStarPathFinder(grid);
+                JumpPointPathFinder jps = new JumpPointPathFinder(grid);
+                SymmetryReducedPathFinder rsr = new SymmetryReducedPathFinder(rectangles);
+                List<Point> points = new ArrayList<Point>();
+                for (int cell = 0; cell < grid.size(); cell++) {
+                    if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+                }
+                for (int i = 0; i < points.size(); i++) {
+                    for (int j = i + 1; j < points.size(); j++) {
+                        Point a = points.get(i), b = points.get(j);
+                        long t1 = System.nanoTime();
+                        int expected = astar.getShortestPath(a, b, size, size);
+                        long t2 = System.nanoTime();
+                        int jumped = jps.getShortestPath(a, b, size, size);
+                        long t3 = System.nanoTime();
+                        int actual = rsr.getShortestPath(a, b, size, size);
+                        long t4 = System.nanoTime();
+                        if (actual != expected || jumped != expected)
+                            throw new IllegalStateException("Different path lengths for " + a + " " + b);
+                        astarExpanded += astar.getExpandedCount();
+                        jpsExpanded += jps.getExpandedCount();
+                        rsrExpanded += rsr.getExpandedCount();
+                        astarTime += t2 - t1;
+                        jpsTime += t3 - t2;
+                        rsrTime += t4 - t3;
+                    }
+                }
+            }
+            System.out.println(kind == 0 ? "Generated maps:" : "With rooms:");
+            System.out.println("  A*:  " + astarExpanded + " expanded, " + astarTime / 1000000 + " ms");
+            System.out.println("  JPS: " + jpsExpanded + " expanded, " + jpsTime / 1000000 + " ms");
+            System.out.println("  RSR: " + rsrExpanded + " expanded, " + rsrTime / 1000000 + " ms, "
+                    + interior + " interior cells pruned, decomposed in " + buildTime / 1000000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package jp.co.worksap.global;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The WitnessDistanceMatrix keeps, for every entry of the distance matrix, the cells of the path
+ * it was computed from, its witness, and after an edit of the map only computes again the entries
+ * which the edit could change:
+ * - Blocking a cell makes distances longer, and only for the pairs whose path crosses the cell.
+ *   The path of every other pair is still there and still a shortest one.
+ * - Unblocking a cell makes distances shorter, and only through the cell. A cell with at most one
+ *   free neighbor cannot be passed through at all. Otherwise a pair can only improve if the manhattan
+ *   distances from its two ends to the cell add up to less than its distance, since no path through
+ *   the cell is shorter than that. Pairs which were not connected are always tried again.
+ * The entries to compute again are grouped by their first point, with one breadth first flood each.
+ *
+ * A witness is the sorted array of the cells of the path, so the test of a blocked cell is one
+ * binary search per pair.
+ */
+public class WitnessDistanceMatrix implements DynamicDistanceMatrix {
+    private GridMap grid;
+    private int[] neighbors;
+    private SearchWorkspace workspace;
+    private List<Point> points;
+    private int[][] distances;
+    // The sorted cells of the path of pair i < j, null if the two points are not connected.
+    private int[][][] witnesses;
+    // The number of entries computed again by the edits so far.
+    private int recomputed;
+
+    /**
+     * @param grid the grid map, which the edits change.
+     */
+    public WitnessDistanceMatrix(GridMap grid) {
+        this.grid = grid;
+        neighbors = grid.neighborOffsets();
+        workspace = new SearchWorkspace(grid.size());
+    }
+
+    /**
+     * @return the number of entries computed again by the edits so far.
+     */
+    public int getRecomputedCount() {
+        return recomputed;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix(List<Point> points) {
+        this.points = new ArrayList<Point>(points);
+        int n = points.size();
+        distances = new int[n][n];
+        witnesses = new int[n][n][];
+        for (int i = 0; i < n - 1; i++) {
+            List<Integer> targets = new ArrayList<Integer>();
+            for (int j = i + 1; j < n; j++) targets.add(j);
+            flood(i, targets);
+        }
+        recomputed = 0;
+        return distances;
+    }
+
+    @Override
+    public int[][] getDistanceMatrix() {
+        return distances;
+    }
+
+    @Override
+    public int blockCell(Point cell) {
+        int c = grid.index(cell);
+        if (!grid.isFree(c))
+            return 0;
+        grid.block(c);
+        int changed = 0;
+        for (int i = 0; i < points.size() - 1; i++) {
+            List<Integer> targets = new ArrayList<Integer>();
+            for (int j = i + 1; j < points.size(); j++) {
+                if (witnesses[i][j] != null && Arrays.binarySearch(witnesses[i][j], c) >= 0) targets.add(j);
+            }
+            changed += flood(i, targets);
+        }
+        return changed;
+    }
+
+    @Override
+    public int unblockCell(Point cell) {
+        int c = grid.index(cell);
+        if (grid.isFree(c))
+            return 0;
+        grid.unblock(c);
+        int free = 0;
+        for (int offset : neighbors) {
+            if (grid.isFree(c + offset)) free++;
+        }
+        if (free < 2)
+            return 0;
+        int changed = 0;
+        for (int i = 0; i < points.size() - 1; i++) {
+            List<Integer> targets = new ArrayList<Integer>();
+            for (int j = i + 1; j < points.size(); j++) {
+                int bound = manhattan(points.get(i), cell) + manhattan(cell, points.get(j));
+                if (distances[i][j] == 0 || bound < distances[i][j]) targets.add(j);
+            }
+            changed += flood(i, targets);
+        }
+        return changed;
+    }
+
+    private static int manhattan(Point a, Point b) {
+        return Math.abs(a.row - b.row) + Math.abs(a.col - b.col);
+    }
+
+    /**
+     * Compute the entries of a point and some of the points after it, with their witnesses.
+     *
+     * @param i       the index of the point to flood from.
+     * @param targets the indices of the points after it whose entries are computed.
+     * @return the number of entries which changed.
+     */
+    private int flood(int i, List<Integer> targets) {
+        if (targets.isEmpty())
+            return 0;
+        workspace.reset();
+        int remaining = 0;
+        for (int j : targets) {
+            int target = grid.index(points.get(j));
+            if (!workspace.isTarget(target)) {
+                workspace.markTarget(target);
+                remaining++;
+            }
+        }
+        int[] queue = workspace.queue;
+        int head = 0, tail = 0;
+        queue[tail++] = grid.index(points.get(i));
+        workspace.open(queue[0], 0, -1);
+        if (workspace.isTarget(queue[0])) remaining--;
+        while (head < tail && remaining > 0) {
+            int cur = queue[head++];
+            for (int offset : neighbors) {
+                int next = cur + offset;
+                if (!grid.isFree(next) || workspace.isVisited(next))
+                    continue;
+                workspace.open(next, workspace.gScore[cur] + 1, cur);
+                queue[tail++] = next;
+                if (workspace.isTarget(next)) remaining--;
+            }
+        }
+
+        int changed = 0;
+        for (int j : targets) {
+            int target = grid.index(points.get(j));
+            int d = workspace.isVisited(target) ? workspace.gScore[target] : 0;
+            int[] witness = null;
+            if (workspace.isVisited(target)) {
+                witness = new int[d + 1];
+                for (int k = 0, cell = target; cell >= 0; cell = workspace.parent[cell]) witness[k++] = cell;
+                Arrays.sort(witness);
+            }
+            witnesses[i][j] = witness;
+            if (distances[i][j] != d) changed++;
+            distances[i][j] = d;
+            distances[j][i] = d;
+            recomputed++;
+        }
+        return changed;
+    }
+
+    /**
+     * Block and unblock random cells close to the points on large maps of the MapGenerator,
+     * comparing every updated matrix with the breadth first floods on the edited map.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        int size = 1000;
+        MapGenerator generator = new MapGenerator(size, size);
+        Random rand = new Random(size);
+        GridMap grid = GridMap.fromRows(generator.generate(), size, size);
+        List<Point> points = new ArrayList<Point>();
+        for (int cell = 0; cell < grid.size(); cell++) {
+            if (grid.isMarked(cell)) points.add(grid.toPoint(cell));
+        }
+        WitnessDistanceMatrix dynamic = new WitnessDistanceMatrix(grid);
+        dynamic.getDistanceMatrix(points);
+        AStarPathFinder floods = new AStarPathFinder(grid);
+
+        long updateTime = 0, floodTime = 0;
+        int edits = 0, changed = 0;
+        List<Point> blocked = new ArrayList<Point>();
+        while (edits < 200) {
+            Point cell;
+            boolean block = blocked.isEmpty() || rand.nextInt(3) > 0;
+            if (block) {
+                // Close to a point, where the cells are on many shortest paths.
+                Point near = points.get(rand.nextInt(points.size()));
+                cell = new Point(near.row + rand.nextInt(7) - 3, near.col + rand.nextInt(7) - 3);
+                if (cell.row < 0 || cell.row >= size || cell.col < 0 || cell.col >= size)
+                    continue;
+                if (!grid.isFree(grid.index(cell)) || grid.isMarked(grid.index(cell)))
+                    continue;
+                blocked.add(cell);
+            } else {
+                cell = blocked.remove(rand.nextInt(blocked.size()));
+            }
+            long t0 = System.nanoTime();
+            changed += block ? dynamic.blockCell(cell) : dynamic.unblockCell(cell);
+            long t1 = System.nanoTime();
+            int[][] expected = floods.getDistanceMatrix(points);
+            long t2 = System.nanoTime();
+            if (!Arrays.deepEquals(expected, dynamic.getDistanceMatrix()))
+                throw new IllegalStateException("Wrong matrix after editing " + cell);
+            updateTime += t1 - t0;
+            floodTime += t2 - t1;
+            edits++;
+        }
+        int pairs = points.size() * (points.size() - 1) / 2;
+        System.out.println(edits + " edits on " + pairs + " pairs, " + dynamic.getRecomputedCount()
+                + " entries computed again, " + changed + " changed, updates " + updateTime / 1000000
+                + " ms, floods from scratch " + floodTime / 1000000 + " ms");
+    }
+}
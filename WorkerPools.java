@@ -0,0 +1,36 @@
+package jp.co.worksap.global;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Created by Emperor on 14/10/26.
+ */
+
+/**
+ * The WorkerPools hands out one ForkJoinPool per number of threads, shared by the engines which
+ * spread their work over threads. Orienteering creates the engines again after every edit of the
+ * map, and a pool per engine would leave its idle threads behind each time, while a shared pool is
+ * created once. The workers of a ForkJoinPool are daemon threads, so the pools do not keep the
+ * program alive and are never shut down.
+ */
+final class WorkerPools {
+    private static final Map<Integer, ForkJoinPool> pools = new HashMap<Integer, ForkJoinPool>();
+
+    private WorkerPools() {
+    }
+
+    /**
+     * @param threads the number of worker threads.
+     * @return the pool of that many threads.
+     */
+    static synchronized ForkJoinPool get(int threads) {
+        ForkJoinPool pool = pools.get(threads);
+        if (pool == null) {
+            pool = new ForkJoinPool(threads);
+            pools.put(threads, pool);
+        }
+        return pool;
+    }
+}